@@ -0,0 +1,146 @@
+import java.util.List;
+
+/**
+ * Adaptive replacement cache (Megiddo and Modha). Objects seen once are kept in T1 and objects seen at least
+ * twice in T2. The keys of objects recently removed from T1 and T2 are remembered in the ghost lists B1 and B2;
+ * a request for a key in B1 grows the share of the cache given to T1, a request for a key in B2 grows T2.
+ * The cache therefore adapts between recency (leaf scans) and frequency (upper levels of the tree) on its own.
+ *
+ * @param <T> type of objects to be stored
+ */
+public class ARCCache<T> extends Cache<T> {
+
+    private static final int T1 = 0; // seen once
+    private static final int T2 = 1; // seen at least twice
+    private static final int B1 = 2; // keys removed from T1
+    private static final int B2 = 3; // keys removed from T2
+
+    private final CacheLists<T> lists;
+    private int p; // target size of T1
+
+    /**
+     * @param capacity size of the Cache
+     */
+    public ARCCache(int capacity) {
+        super(capacity);
+        lists = new CacheLists<>(capacity * 2, 4);
+        p = 0;
+    }
+
+    @Override
+    protected T lookup(long key) {
+        int slot = lists.find(key);
+        if (slot == CacheLists.NONE || !isResident(slot)) return null;
+        lists.moveToTop(slot, T2);
+        return lists.element(slot);
+    }
+
+    @Override
+    public T add(long key, T data) {
+        int slot = lists.find(key);
+        T evicted = null;
+        if (slot != CacheLists.NONE && isResident(slot)) {
+            lists.setElement(slot, data);
+            lists.moveToTop(slot, T2);
+            return null;
+        }
+        if (slot != CacheLists.NONE && lists.listOf(slot) == B1) {
+            // recently removed from T1, T1 should be larger
+            p = Math.min(capacity, p + Math.max(lists.size(B2) / lists.size(B1), 1));
+            if (size() == capacity) evicted = replace(false);
+            lists.setElement(slot, data);
+            lists.moveToTop(slot, T2);
+            return evicted;
+        }
+        if (slot != CacheLists.NONE) {
+            // recently removed from T2, T2 should be larger
+            p = Math.max(0, p - Math.max(lists.size(B1) / lists.size(B2), 1));
+            if (size() == capacity) evicted = replace(true);
+            lists.setElement(slot, data);
+            lists.moveToTop(slot, T2);
+            return evicted;
+        }
+
+        // new key
+        if (lists.size(T1) + lists.size(B1) == capacity) {
+            if (lists.size(T1) < capacity) {
+                lists.delete(lists.bottom(B1));
+                if (size() == capacity) evicted = replace(false);
+            } else {
+                int victim = lists.bottom(T1);
+                evicted = lists.element(victim);
+                lists.delete(victim);
+            }
+        } else {
+            int total = size() + lists.size(B1) + lists.size(B2);
+            if (total >= capacity) {
+                if (total == capacity * 2) lists.delete(lists.bottom(B2));
+                if (size() == capacity) evicted = replace(false);
+            }
+        }
+        lists.insert(key, data, T1);
+        return evicted;
+    }
+
+    /**
+     * Removes an object from T1 or T2 and remembers its key in the matching ghost list
+     *
+     * @param inB2 true if the requested key was found in B2
+     * @return the removed object
+     */
+    private T replace(boolean inB2) {
+        int t1 = lists.size(T1);
+        int victim;
+        if (t1 > 0 && ((inB2 && t1 == p) || t1 > p || lists.size(T2) == 0)) {
+            victim = lists.bottom(T1);
+            T element = lists.element(victim);
+            lists.setElement(victim, null);
+            lists.moveToTop(victim, B1);
+            return element;
+        }
+        victim = lists.bottom(T2);
+        T element = lists.element(victim);
+        lists.setElement(victim, null);
+        lists.moveToTop(victim, B2);
+        return element;
+    }
+
+    /**
+     * @param slot slot of an entry
+     * @return true if the entry holds an object, false if it only remembers a key
+     */
+    private boolean isResident(int slot) {
+        int list = lists.listOf(slot);
+        return list == T1 || list == T2;
+    }
+
+    @Override
+    public T remove(long key) {
+        int slot = lists.find(key);
+        if (slot == CacheLists.NONE || !isResident(slot)) return null;
+        T element = lists.element(slot);
+        lists.delete(slot);
+        return element;
+    }
+
+    @Override
+    public List<T> getObjects() {
+        return collect(lists, T1, T2);
+    }
+
+    @Override
+    public int size() {
+        return lists.size(T1) + lists.size(T2);
+    }
+
+    @Override
+    public void clear() {
+        lists.clear();
+        p = 0;
+    }
+
+    @Override
+    public String getPolicy() {
+        return "arc";
+    }
+}
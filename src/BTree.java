@@ -1,21 +1,51 @@
+import java.io.Closeable;
 import java.io.File;
 import java.io.IOException;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
 
 /**
  * Represents a BTree, uses a file on the disk for storage
  * Maintains BTree property
+ * <p>
+ * Any number of threads may call get at the same time. Without a cache lookups take no locks; with a cache
+ * only the accesses to the cache are synchronized. Modifying the tree is not thread-safe.
  */
-public class BTree {
+public class BTree implements Closeable {
 
     public static final int MODE_WRITE = 0;
     public static final int MODE_READ = 1;
+    public static final int MODE_RESUME = 2; // opens an existing file to continue writing it, see rollBack
+    public static final int MODE_UPDATE = 3; // opens an existing file to add keys to the tree
+    public static final int MODE_MAPPED = 4; // combined with another mode, memory maps the file
+    public static final int MODE_WIDE = 8; // combined with MODE_WRITE, creates a tree with wide keys
+    public static final int MODE_COMPACT = 16; // combined with MODE_WRITE, creates a tree of compact nodes
+    public static final int MODE_BPLUS = 32; // combined with MODE_WRITE, creates a B+ tree
     public static final int METADATA_SIZE = Integer.BYTES + Long.BYTES;
+    public static final int FLAG_CANONICAL = 1 << 24; // keys are canonical k-mers, see DNAConversion.canonical
+    public static final int FLAG_WIDE_KEYS = 1 << 25; // keys are two longs, for sequences longer than 31 bases
+    public static final int FLAG_COMPACT = 1 << 26; // nodes use the CompactNodeFormat, the tree is read-only
+    public static final int FLAG_ALIGNED = 1 << 27; // header and nodes are aligned to pages of a stored size
+    public static final int FLAG_BPLUS = 1 << 28; // keys are only stored in leaves, which are linked, the tree is read-only
+    private static final KeySearch KEY_SEARCH = KeySearch.get();
     private final int t; // degree/min children
     private final int m; // order/max children
+    private final boolean wide; // keys have a high word
+    private final boolean compact; // nodes use the compact format and are only written by the builder
+    private final boolean bplus; // B+ tree, only written by the builder
     private final DiskReadWrite diskrw;
     private BTreeNode root;
-    private Cache<Long, BTreeNode> cache;
+    private final ThreadLocal<BTreeNodeView> searchViews;
+    private Cache<BTreeNode> cache;
     private boolean useCache;
+    private boolean writeBack;
+    // leaf reached by the last upsert, reused by insertAll
+    private BTreeNode lastLeaf;
+    private boolean lastLeafHasLow;
+    private long lastLeafLow;
+    private boolean lastLeafHasHigh;
+    private long lastLeafHigh;
 
     /**
      * Creates a new BTree (without cache), can either create an empty tree or load a tree from a file.
@@ -23,20 +53,16 @@ public class BTree {
      *
      * @param degree   degree of BTree, i.e. minimum number of child nodes
      * @param fileName name of file where BTree will be stored
-     * @param mode     0 for creating a new tree, 1 for loading from an existing file
+     * @param mode     0 for creating a new tree, 1 for loading from an existing file,
+     *                 MODE_RESUME to continue a tree from a checkpoint (see {@link #rollBack}),
+     *                 MODE_UPDATE to load a tree from an existing file and add keys to it,
+     *                 add MODE_MAPPED to access the file through memory mapping,
+     *                 add MODE_WIDE to create a tree for sequences longer than 31 bases,
+     *                 add MODE_COMPACT to create a tree of compact nodes that is filled by bulkLoader,
+     *                 add MODE_BPLUS to create a B+ tree that is filled by bulkLoader (see {@link #FLAG_BPLUS})
      */
     public BTree(int degree, String fileName, int mode) throws IOException {
-        useCache = false;
-        diskrw = new DiskReadWrite(new File(fileName), METADATA_SIZE);
-        if (mode == MODE_WRITE) {
-            t = degree;
-            m = degree * 2;
-            diskrw.writeMetadata(0, m);
-        } else {
-            t = diskrw.getDegree();
-            m = t * 2;
-            root = diskrw.readNode(diskrw.getRootAddress());
-        }
+        this(degree, fileName, null, mode, 0);
     }
 
     /**
@@ -46,46 +72,389 @@ public class BTree {
      * @param degree    degree of BTree, i.e. minimum number of child nodes
      * @param fileName  name of file where BTree will be stored
      * @param cacheSize number of objects that can be stored in cache
-     * @param mode      0 for creating a new tree, 1 for loading from an existing file
+     * @param mode      0 for creating a new tree, 1 for loading from an existing file,
+     *                  add MODE_MAPPED to access the file through memory mapping
      */
     public BTree(int degree, String fileName, int cacheSize, int mode) throws IOException {
-        this(degree, fileName, mode);
-        useCache = true;
-        cache = new Cache<>(cacheSize);
+        this(degree, fileName, new LRUCache<>(cacheSize), mode);
+    }
+
+    /**
+     * Creates a new BTree which uses the given cache (and its replacement policy),
+     * can either create an empty tree or load a tree from a file.
+     * Initializes a DiskReadWrite object for disk access.
+     *
+     * @param degree   degree of BTree, i.e. minimum number of child nodes
+     * @param fileName name of file where BTree will be stored
+     * @param cache    empty cache used to hold nodes, see {@link Cache#create(String, int)}
+     * @param mode     0 for creating a new tree, 1 for loading from an existing file,
+     *                 add MODE_MAPPED to access the file through memory mapping
+     */
+    public BTree(int degree, String fileName, Cache<BTreeNode> cache, int mode) throws IOException {
+        this(degree, fileName, cache, mode, 0);
+    }
+
+    /**
+     * Creates a new BTree whose file is laid out in pages, or loads a tree from a file.
+     * The header of a new tree is padded to one page and every node starts on a page boundary and takes
+     * a whole number of pages, so a node whose degree was derived from the page size
+     * (see {@link BTreeNode#getDegree(int, int)}) is read and written as exactly one aligned page.
+     *
+     * @param degree   degree of BTree, i.e. minimum number of child nodes
+     * @param fileName name of file where BTree will be stored
+     * @param cache    empty cache used to hold nodes, null for no cache
+     * @param mode     see {@link #BTree(int, String, int)}
+     * @param pageSize page size of a new tree, 0 for the unaligned layout, ignored when loading a tree
+     */
+    public BTree(int degree, String fileName, Cache<BTreeNode> cache, int mode, int pageSize) throws IOException {
+        useCache = cache != null;
+        this.cache = cache;
+        boolean mapped = (mode & MODE_MAPPED) != 0;
+        boolean wideKeys = (mode & MODE_WIDE) != 0;
+        boolean compactNodes = (mode & MODE_COMPACT) != 0;
+        boolean bplusTree = (mode & MODE_BPLUS) != 0;
+        if (wideKeys && compactNodes) throw new IllegalArgumentException("Compact nodes do not support wide keys");
+        if (wideKeys && bplusTree) throw new IllegalArgumentException("B+ trees do not support wide keys");
+        mode &= ~(MODE_MAPPED | MODE_WIDE | MODE_COMPACT | MODE_BPLUS);
+        if (mapped) {
+            diskrw = new MappedDiskReadWrite(new File(fileName), METADATA_SIZE, mode != MODE_READ);
+        } else {
+            diskrw = new DiskReadWrite(new File(fileName), METADATA_SIZE);
+        }
+        if (mode == MODE_WRITE) {
+            t = degree;
+            m = degree * 2;
+            diskrw.writeMetadata(0, m, (wideKeys ? FLAG_WIDE_KEYS : 0) | (compactNodes ? FLAG_COMPACT : 0)
+                    | (bplusTree ? FLAG_BPLUS : 0), pageSize);
+        } else {
+            // the file stores the order, m = 2t
+            m = diskrw.getDegree();
+            t = m / 2;
+            // new nodes are appended after the existing ones, found before a writable mapping extends the file
+            if (mode == MODE_UPDATE) diskrw.recoverEndAddress();
+            // a resumed tree gets its root from the checkpoint
+            if (mode != MODE_RESUME) root = diskrw.readNode(diskrw.getRootAddress());
+        }
+        wide = (diskrw.getFlags() & FLAG_WIDE_KEYS) != 0;
+        compact = (diskrw.getFlags() & FLAG_COMPACT) != 0;
+        bplus = (diskrw.getFlags() & FLAG_BPLUS) != 0;
+        if (mode == MODE_UPDATE) {
+            if (compact || bplus) {
+                diskrw.close();
+                throw new IllegalStateException(compact ? "A BTree of compact nodes cannot be updated"
+                        : "A B+ tree cannot be updated");
+            }
+        }
+        searchViews = ThreadLocal.withInitial(diskrw::newView);
+    }
+
+    /**
+     * BTree files are named <gbk file>.btree.data.<sequence length>.<degree>
+     *
+     * @param sourceName     name of the gbk file the sequences are read from
+     * @param sequenceLength length of DNA sequences stored in the BTree
+     * @param degree         degree of the BTree
+     * @return the name of the BTree file
+     */
+    public static String getFileName(String sourceName, int sequenceLength, int degree) {
+        return sourceName + ".btree.data." + sequenceLength + "." + degree;
+    }
+
+    /**
+     * @param fileName name of a BTree file, see {@link #getFileName}
+     * @return the sequence length in the name of the file, -1 if the name has no sequence length
+     */
+    public static int getSequenceLength(String fileName) {
+        String[] fileNameArr = new File(fileName).getName().split("\\.");
+        if (fileNameArr.length < 2) return -1;
+        try {
+            return Integer.parseInt(fileNameArr[fileNameArr.length - 2]);
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+
+    /**
+     * Enables or disables write-back caching.
+     * In write-back mode modified nodes are only marked dirty in the cache. A dirty node is written to the disk
+     * when it is removed from the cache, or when flush or close is called.
+     * Requires a BTree with a cache.
+     *
+     * @param writeBack true to delay node writes until eviction or flush
+     */
+    public void setWriteBack(boolean writeBack) throws IOException {
+        if (writeBack && !useCache) throw new IllegalStateException("Write-back mode requires a cache");
+        if (!writeBack) flush();
+        this.writeBack = writeBack;
+    }
+
+    /**
+     * @return flags stored in the file describing the keys of the tree, e.g. FLAG_CANONICAL
+     */
+    public int getFlags() {
+        return diskrw.getFlags();
+    }
+
+    /**
+     * Stores flags describing the keys of the tree in the file
+     *
+     * @param flags combination of the FLAG_ constants
+     */
+    public void setFlags(int flags) throws IOException {
+        diskrw.setFlags(flags);
+    }
+
+    /**
+     * @return the cache used by this BTree, null if the BTree has no cache
+     */
+    public Cache<BTreeNode> getCache() {
+        return cache;
+    }
+
+    /**
+     * Writes every dirty node in the cache to the disk, in address order
+     */
+    public void flush() throws IOException {
+        if (!writeBack) return;
+        List<BTreeNode> nodes = cache.getObjects();
+        nodes.sort(Comparator.comparingLong(node -> node.address));
+        for (BTreeNode node : nodes) {
+            writeDirty(node);
+        }
+    }
+
+    /**
+     * Writes every dirty node and forces all changes to the storage device,
+     * afterwards the file holds exactly the current tree
+     */
+    public void sync() throws IOException {
+        flush();
+        diskrw.force();
+    }
+
+    /**
+     * @return address of the root node, 0 if the tree is empty
+     */
+    public long getRootAddress() {
+        return root == null ? 0 : root.address;
+    }
+
+    /**
+     * @return address of the end of the file, where the next node will be written
+     */
+    public long getEndAddress() {
+        return diskrw.getEndAddress();
+    }
+
+    /**
+     * Starts an undo journal for the current state of the file, see {@link DiskReadWrite#startJournal}.
+     * Call sync first so the file holds the current tree.
+     *
+     * @param journalFile file of the journal
+     * @param generation  number identifying the current state
+     */
+    public void startJournal(File journalFile, long generation) throws IOException {
+        diskrw.startJournal(journalFile, generation);
+    }
+
+    /**
+     * Returns a tree opened with MODE_RESUME to a state saved with startJournal and loads its root.
+     * Must be called before the tree is used.
+     *
+     * @param journalFile journal started when the state was saved
+     * @param generation  generation the journal was started with
+     * @param rootAddress address of the root node in that state
+     * @param endAddress  end of the file in that state
+     */
+    public void rollBack(File journalFile, long generation, long rootAddress, long endAddress) throws IOException {
+        diskrw.rollBack(journalFile, generation, rootAddress, endAddress);
+        root = diskrw.readNode(rootAddress);
+        lastLeaf = null;
+    }
+
+    /**
+     * Flushes any dirty nodes and closes the file on the disk
+     */
+    @Override
+    public void close() throws IOException {
+        flush();
+        diskrw.close();
     }
 
     /**
      * Inserts a TreeObject into the BTree while maintaining the BTree property.
+     * If the key is already in the BTree its frequency is increased by the frequency of k.
      * Updates file on disk
      *
      * @param k TreeObject to insert
      */
     public void insert(TreeObject k) throws IOException {
+        upsert(k.highSubstring, k.substring, k.frequency);
+    }
+
+    /**
+     * Adds delta to the frequency of a key, inserting the key if it is not in the BTree.
+     * Uses a single top-down pass: full nodes on the path are split before they are entered,
+     * so the key is either found or inserted without walking the tree a second time.
+     * Updates file on disk
+     *
+     * @param key   long representation of the DNA sequence
+     * @param delta amount to add to the frequency of the key
+     */
+    public void upsert(long key, int delta) throws IOException {
+        upsert(0, key, delta);
+    }
+
+    /**
+     * Adds delta to the frequency of a wide key (a sequence longer than 31 bases), inserting the key if it is not
+     * in the BTree. See {@link #upsert(long, int)}.
+     *
+     * @param highKey high word of the DNA sequence, must be 0 unless the tree has wide keys
+     * @param key     (low word of the) long representation of the DNA sequence
+     * @param delta   amount to add to the frequency of the key
+     */
+    public void upsert(long highKey, long key, int delta) throws IOException {
+        if (highKey != 0 && !wide) throw new IllegalArgumentException("Wide keys require a BTree created with MODE_WIDE");
+        if (compact) throw new IllegalStateException("A BTree of compact nodes can only be filled by bulkLoader");
+        if (bplus) throw new IllegalStateException("A B+ tree can only be filled by bulkLoader");
         if (root == null) {
-            root = new BTreeNode(t, true);
-            root.keys[0] = k;
+            root = newNode(true);
+            root.setKey(0, highKey, key, delta);
             root.n = 1;
             // write root to disk
-            diskrw.writeNode(root);
+            writeNode(root);
             diskrw.setRoot(root.address);
-        } else {
-            BTreeNode existingNode = getContainingNode(k.substring);
-            TreeObject object = getTreeObject(existingNode, k.substring);
-            if (object == null) {
-                if (root.n == (m - 1)) {
-                    BTreeNode s = new BTreeNode(t, false);
-                    s.children[0] = root.address;
-                    diskrw.writeNode(s);
-                    root = s;
-                    diskrw.setRoot(s.address);
-                    splitChild(root, 0);
+            rememberLeaf(root, false, 0, false, 0);
+            return;
+        }
+        if (root.n == (m - 1)) {
+            BTreeNode s = newNode(false);
+            s.children[0] = root.address;
+            writeNode(s);
+            BTreeNode oldRoot = root;
+            root = s;
+            diskrw.setRoot(s.address);
+            splitChild(root, 0, oldRoot);
+        }
+
+        // bounds of the keys that can be stored below node
+        boolean hasLow = false, hasHigh = false;
+        long low = 0, high = 0;
+        BTreeNode node = root;
+        while (true) {
+            int i = find(node, highKey, key);
+            if (i < node.n && node.compareKey(i, highKey, key) == 0) {
+                node.frequencies[i] += delta;
+                updateNode(node);
+                if (node.leaf) rememberLeaf(node, hasLow, low, hasHigh, high);
+                else lastLeaf = null;
+                return;
+            }
+            if (node.leaf) {
+                insertIntoLeaf(node, i, highKey, key, delta);
+                rememberLeaf(node, hasLow, low, hasHigh, high);
+                return;
+            }
+
+            BTreeNode child = getNode(node.children[i]);
+            // if child is full, split it and go to the half which contains the key
+            if (child.n == m - 1) {
+                BTreeNode newNode = splitChild(node, i, child);
+                int middle = node.compareKey(i, highKey, key);
+                if (middle == 0) {
+                    node.frequencies[i] += delta;
+                    updateNode(node);
+                    lastLeaf = null;
+                    return;
+                }
+                if (middle < 0) {
+                    i++;
+                    child = newNode;
                 }
-                insertNonFull(root, k);
-            } else {
-                object.incrementFrequency();
-                diskrw.updateNode(existingNode);
+            }
+            if (i > 0) {
+                hasLow = true;
+                low = node.keys[i - 1];
+            }
+            if (i < node.n) {
+                hasHigh = true;
+                high = node.keys[i];
+            }
+            node = child;
+        }
+    }
+
+    /**
+     * Adds counts for a batch of keys, equivalent to calling upsert for each key.
+     * When the keys are sorted, consecutive keys usually belong to the same leaf; the leaf found for the
+     * previous key is reused for such keys instead of descending from the root again.
+     *
+     * @param sortedKeys keys to update, in ascending order
+     * @param counts     amount to add to the frequency of each key
+     */
+    public void insertAll(long[] sortedKeys, int[] counts) throws IOException {
+        lastLeaf = null;
+        for (int j = 0; j < sortedKeys.length; j++) {
+            if (!upsertLastLeaf(sortedKeys[j], counts[j])) {
+                upsert(sortedKeys[j], counts[j]);
             }
         }
+        lastLeaf = null;
+    }
+
+    /**
+     * Updates the key in the leaf reached by the previous upsert if the key belongs to that leaf
+     *
+     * @param key   long representation of the DNA sequence
+     * @param delta amount to add to the frequency of the key
+     * @return true if the key was updated, false if a full upsert is required
+     */
+    private boolean upsertLastLeaf(long key, int delta) throws IOException {
+        if (lastLeaf == null) return false;
+        if ((lastLeafHasLow && key <= lastLeafLow) || (lastLeafHasHigh && key >= lastLeafHigh)) return false;
+        int i = KEY_SEARCH.lowerBound(lastLeaf.keys, lastLeaf.n, key);
+        if (i < lastLeaf.n && lastLeaf.keys[i] == key) {
+            lastLeaf.frequencies[i] += delta;
+            updateNode(lastLeaf);
+            return true;
+        }
+        if (lastLeaf.n == m - 1) return false;
+        insertIntoLeaf(lastLeaf, i, 0, key, delta);
+        return true;
+    }
+
+    /**
+     * Records the leaf reached by an upsert and the range of keys that belong to it.
+     * Only narrow keys are tracked, insertAll descends from the root for every key of a tree with wide keys.
+     *
+     * @param leaf    leaf node
+     * @param hasLow  true if the leaf has a lower bound
+     * @param low     keys in the leaf are greater than low
+     * @param hasHigh true if the leaf has an upper bound
+     * @param high    keys in the leaf are less than high
+     */
+    private void rememberLeaf(BTreeNode leaf, boolean hasLow, long low, boolean hasHigh, long high) {
+        lastLeaf = wide ? null : leaf;
+        lastLeafHasLow = hasLow;
+        lastLeafLow = low;
+        lastLeafHasHigh = hasHigh;
+        lastLeafHigh = high;
+    }
+
+    /**
+     * Inserts a new key into a non-full leaf and updates the file on the disk
+     *
+     * @param leaf    non-full leaf node
+     * @param i       index to insert the key at
+     * @param highKey high word of the DNA sequence, ignored for narrow keys
+     * @param key     long representation of the DNA sequence
+     * @param delta   frequency of the new key
+     */
+    private void insertIntoLeaf(BTreeNode leaf, int i, long highKey, long key, int delta) throws IOException {
+        BTreeNode.copyKeys(leaf, i, leaf, i + 1, leaf.n - i);
+        leaf.setKey(i, highKey, key, delta);
+        leaf.n++;
+        updateNode(leaf);
     }
 
     /**
@@ -93,16 +462,16 @@ public class BTree {
      *
      * @param nonFull   node containing child to be split
      * @param fullChild index of node to be split
+     * @param fullNode  the child node to be split
+     * @return the new node holding the upper half of the keys of fullNode
      */
-    private void splitChild(BTreeNode nonFull, int fullChild) throws IOException {
-        BTreeNode fullNode = getNode(nonFull.children[fullChild]);
-
+    private BTreeNode splitChild(BTreeNode nonFull, int fullChild, BTreeNode fullNode) throws IOException {
         // Create a new node
-        BTreeNode newNode = new BTreeNode(t, fullNode.leaf);
+        BTreeNode newNode = newNode(fullNode.leaf);
         newNode.n = t - 1;
 
         // Copy the last (t-1) keys of fullNode to newNode
-        System.arraycopy(fullNode.keys, t, newNode.keys, 0, t - 1);
+        BTreeNode.copyKeys(fullNode, t, newNode, 0, t - 1);
 
         // Copy the last t children of fullNode to newNode
         if (!fullNode.leaf) {
@@ -110,104 +479,154 @@ public class BTree {
         }
 
         // write newNode
-        diskrw.writeNode(newNode);
+        writeNode(newNode);
 
         // update fullNode.n
         fullNode.n = t - 1;
 
         // update fullNode on disk
-        diskrw.updateNode(fullNode);
+        updateNode(fullNode);
 
         // add newNode to parent
         System.arraycopy(nonFull.children, fullChild + 1, nonFull.children, fullChild + 2, nonFull.n - fullChild);
         nonFull.children[fullChild + 1] = newNode.address;
 
         // add middle key of fullNode to parent
-        System.arraycopy(nonFull.keys, fullChild, nonFull.keys, fullChild + 1, nonFull.n - fullChild);
-        nonFull.keys[fullChild] = fullNode.keys[t - 1];
+        BTreeNode.copyKeys(nonFull, fullChild, nonFull, fullChild + 1, nonFull.n - fullChild);
+        BTreeNode.copyKeys(fullNode, t - 1, nonFull, fullChild, 1);
 
         // update nonFull.n
         nonFull.n++;
 
         // update nonFull on disk
-        diskrw.updateNode(nonFull);
+        updateNode(nonFull);
+        return newNode;
     }
 
     /**
-     * Inserts a TreeObject into the proper leaf node of the BTree.
-     * Uses a recursive strategy to split nodes as necessary.
+     * Searches for a key, may be called by several threads at once
      *
-     * @param nonFull non-full node
-     * @param key     TreeObject to be added
+     * @param key long representation of DNA string to search for
+     * @return the TreeObject that contains the target long value, null if not in tree
      */
-    private void insertNonFull(BTreeNode nonFull, TreeObject key) throws IOException {
-
-        // i = index to insert key, starts at end of node
-        int i = nonFull.n - 1;
+    public TreeObject get(long key) throws IOException {
+        if (useCache || root == null || wide) return getTreeObject(getContainingNode(0, key), 0, key);
 
-        // If this is a leaf node, insert
-        if (nonFull.leaf) {
-            // shift keys forward until the location to insert new key is found
-            while (i >= 0 && nonFull.keys[i].compareTo(key) > 0) {
-                nonFull.keys[i + 1] = nonFull.keys[i];
-                i--;
+        // without a cache, search through a view so visited nodes are not decoded into objects
+        BTreeNodeView searchView = searchViews.get();
+        int i = KEY_SEARCH.lowerBound(root.keys, root.n, key);
+        if (i < root.n && root.keys[i] == key) {
+            if (!bplus || root.leaf) return root.getTreeObject(i);
+            // a separator of a B+ tree is the first key of the subtree to its right
+            i++;
+        }
+        long address = root.children[i];
+        while (address != 0) {
+            diskrw.readView(address, searchView);
+            i = searchView.lowerBound(key);
+            if (i < searchView.getN() && searchView.getKey(i) == key) {
+                if (!bplus || searchView.isLeaf()) return new TreeObject(key, searchView.getFrequency(i));
+                i++;
             }
-            // Insert the new key at found location
-            nonFull.keys[i + 1] = key;
-            nonFull.n = nonFull.n + 1;
-
-            // update disk
-            diskrw.updateNode(nonFull);
+            if (searchView.isLeaf()) return null;
+            address = searchView.getChild(i);
+        }
+        return null;
+    }
 
-            // if this is not a leaf node, continue searching
-        } else {
-            // Find the correct child
-            while (i >= 0 && nonFull.keys[i].compareTo(key) > 0) i--;
-            BTreeNode child = getNode(nonFull.children[i + 1]);
+    /**
+     * Searches for a wide key (a sequence longer than 31 bases), may be called by several threads at once
+     *
+     * @param highKey high word of the DNA sequence
+     * @param key     low word of the DNA sequence
+     * @return the TreeObject that contains the target key, null if not in tree
+     */
+    public TreeObject get(long highKey, long key) throws IOException {
+        if (!wide) return highKey == 0 ? get(key) : null;
+        return getTreeObject(getContainingNode(highKey, key), highKey, key);
+    }
 
-            // if child is full, split it
-            if (child.n == m - 1) {
-                splitChild(nonFull, i + 1);
+    /**
+     * Searches for a batch of keys in one sweep over the tree.
+     * The keys are sorted and every node is visited at most once, together with all keys of the batch
+     * that belong to its subtree, so neighbouring keys share the reads of their upper nodes and leaves.
+     * May be called by several threads at once.
+     *
+     * @param keys long representations of the DNA strings to search for, in any order
+     * @return the frequency of each key, in the order of keys, 0 for keys that are not in the tree
+     */
+    public int[] getAll(long[] keys) throws IOException {
+        if (wide) throw new IllegalStateException("Batch lookup is only supported for sequences of up to 31 bases");
+        int[] frequencies = new int[keys.length];
+        if (root == null || keys.length == 0) return frequencies;
 
-                // go to next child if necessary
-                if (nonFull.keys[i + 1].compareTo(key) < 0) {
-                    child = getNode(nonFull.children[i + 2]);
-                } else {
-                    child = getNode(nonFull.children[i + 1]);
-                }
-            }
-            // calls the method recursively until a leaf node is found
-            insertNonFull(child, key);
+        // sort the keys and remove duplicates
+        long[] sorted = keys.clone();
+        Arrays.sort(sorted);
+        int unique = 1;
+        for (int j = 1; j < sorted.length; j++) {
+            if (sorted[j] != sorted[unique - 1]) sorted[unique++] = sorted[j];
         }
+        int[] found = new int[unique];
+        getAll(root, sorted, 0, unique, found);
 
+        // map the results back to the order of the keys
+        for (int j = 0; j < keys.length; j++) {
+            frequencies[j] = found[Arrays.binarySearch(sorted, 0, unique, keys[j])];
+        }
+        return frequencies;
     }
 
     /**
-     * @param key long representation of DNA string to search for
-     * @return the TreeObject that contains the target long value, null if not in tree
+     * Searches for a range of sorted keys in the subtree of a node
+     *
+     * @param node        root of the subtree
+     * @param keys        sorted keys without duplicates
+     * @param from        index of the first key to search for
+     * @param to          index after the last key to search for
+     * @param frequencies receives the frequency of each key found, indexed like keys
      */
-    public TreeObject get(long key) throws IOException {
-        return getTreeObject(getContainingNode(key), key);
+    private void getAll(BTreeNode node, long[] keys, int from, int to, int[] frequencies) throws IOException {
+        int q = from;
+        while (q < to) {
+            int i = KEY_SEARCH.lowerBound(node.keys, node.n, keys[q]);
+            if (i < node.n && node.keys[i] == keys[q]) {
+                if (!bplus || node.leaf) {
+                    frequencies[q] = node.frequencies[i];
+                    q++;
+                    continue;
+                }
+                // the key is in the leaves of the right subtree
+                i++;
+            }
+            // every key less than the key at i belongs to child i
+            int end = to;
+            if (i < node.n) {
+                end = Arrays.binarySearch(keys, q, to, node.keys[i]);
+                if (end < 0) end = -end - 1;
+            }
+            if (!node.leaf) getAll(getNode(node.children[i]), keys, q, end, frequencies);
+            q = end;
+        }
     }
 
 
     /**
      * Finds and returns the BTreeNode containing the target key value
      *
-     * @param key the key (sequence) to search for
+     * @param highKey high word of the key, 0 for narrow keys
+     * @param key     the key (sequence) to search for
      * @return the BTreeNode containing the key, null if not found
      */
-    private BTreeNode getContainingNode(long key) throws IOException {
+    private BTreeNode getContainingNode(long highKey, long key) throws IOException {
         BTreeNode node = root;
         while (node != null) {
-            int i = 0;
-            for (; i < node.n; i++) {
-                long k = node.keys[i].substring;
-                if (key == k) return node;
-                if (key < k) {
-                    break;
-                }
+            int i = find(node, highKey, key);
+            if (i < node.n && node.compareKey(i, highKey, key) == 0) {
+                if (!bplus || node.leaf) return node;
+                i++;
             }
+            if (node.leaf) return null;
             node = getNode(node.children[i]);
         }
         return null;
@@ -216,39 +635,117 @@ public class BTree {
     /**
      * returns the TreeObject from the node if it exists
      *
-     * @param node node to search in
-     * @param key  value to search for
+     * @param node    node to search in
+     * @param highKey high word of the key, 0 for narrow keys
+     * @param key     value to search for
      * @return the TreeObject in the node which contains the key
      */
-    private TreeObject getTreeObject(BTreeNode node, long key) {
+    private TreeObject getTreeObject(BTreeNode node, long highKey, long key) {
         if (node == null) return null;
-        for (int i = 0; i < node.n; i++) {
-            if (node.keys[i].substring == key) return node.keys[i];
-        }
+        int i = find(node, highKey, key);
+        if (i < node.n && node.compareKey(i, highKey, key) == 0) return node.getTreeObject(i);
         return null;
     }
 
+    /**
+     * Finds the position of a key in a node
+     *
+     * @param node    node to search in
+     * @param highKey high word of the key, ignored for narrow keys
+     * @param key     (low word of the) key to search for
+     * @return index of the first key of the node that is not less than the key
+     */
+    private int find(BTreeNode node, long highKey, long key) {
+        if (node.highKeys == null) return KEY_SEARCH.lowerBound(node.keys, node.n, key);
+        return KEY_SEARCH.lowerBound(node.highKeys, node.keys, node.n, highKey, key);
+    }
+
+    /**
+     * @param leaf true if the node is a leaf
+     * @return a new empty node with keys of the width of this tree
+     */
+    private BTreeNode newNode(boolean leaf) {
+        return new BTreeNode(t, leaf, wide);
+    }
+
+    /**
+     * Creates a builder which loads keys given in ascending order into this tree bottom-up.
+     * The tree must be empty.
+     *
+     * @return a builder that writes to the file of this tree
+     */
+    public BTreeBuilder bulkLoader() {
+        if (wide) throw new IllegalStateException("Bulk loading is only supported for sequences of up to 31 bases");
+        if (root != null) throw new IllegalStateException("Bulk loading requires an empty tree");
+        return new BTreeBuilder(this, diskrw, t);
+    }
+
+    /**
+     * Creates a cursor which visits all keys of the tree in ascending order, see {@link BTreeCursor}.
+     * Dirty nodes are written first, the cursor reads the file.
+     *
+     * @return a cursor positioned before the smallest key
+     */
+    public BTreeCursor cursor() throws IOException {
+        flush();
+        return new BTreeCursor(diskrw, root == null ? 0 : root.address);
+    }
+
+    /**
+     * Creates a cursor which visits the keys from lo to hi (inclusive) in ascending order, see {@link BTreeCursor}.
+     * All sequences that start with the same bases are stored under one range of keys, so a scan finds them
+     * without a search for every possible sequence. May be called by several threads at once.
+     *
+     * @param lo smallest key of the range
+     * @param hi greatest key of the range
+     * @return a cursor positioned before the first key of the range
+     */
+    public BTreeCursor scan(long lo, long hi) throws IOException {
+        if (wide) throw new IllegalStateException("Scans are only supported for sequences of up to 31 bases");
+        flush();
+        return new BTreeCursor(diskrw, root == null ? 0 : root.address, lo, hi);
+    }
+
+    /**
+     * Sets the root of the tree and updates the file on disk
+     *
+     * @param node the new root, already written to the disk
+     */
+    void setRoot(BTreeNode node) throws IOException {
+        root = node;
+        diskrw.setRoot(node.address);
+    }
+
     /**
      * @param filename       name/location of file to save the dump file at
      * @param sequenceLength length of DNA sequence, important for converting from long to string
      */
-    public void dump(String filename, int sequenceLength) {
+    public void dump(String filename, int sequenceLength) throws IOException {
+        flush();
         diskrw.dump(filename, sequenceLength);
     }
 
     /**
      * Gets the node at the given address.
      * If cache is enabled, the cache will be searched before the file on the disk.
+     * The cache is locked while it is accessed, but not while a node is read from the disk.
      *
      * @param address address of node to retrieve
      * @return the node at the given address
      */
     private BTreeNode getNode(long address) throws IOException {
         if (useCache) {
-            BTreeNode node = cache.getObject(address);
+            BTreeNode node;
+            synchronized (cache) {
+                node = cache.getObject(address);
+            }
             if (node == null) {
                 node = diskrw.readNode(address);
-                cache.add(address, node);
+                BTreeNode evicted;
+                synchronized (cache) {
+                    evicted = cache.add(address, node);
+                }
+                writeDirty(evicted);
                 return node;
             }
             return node;
@@ -256,5 +753,47 @@ public class BTree {
             return diskrw.readNode(address);
         }
     }
+
+    /**
+     * Writes a new node to the end of the file.
+     * In write-back mode the space is only reserved and the node is added to the cache as dirty.
+     *
+     * @param node node to be written
+     */
+    private void writeNode(BTreeNode node) throws IOException {
+        if (writeBack) {
+            diskrw.allocateNode(node);
+            updateNode(node);
+        } else {
+            diskrw.writeNode(node);
+        }
+    }
+
+    /**
+     * Writes a modified node to its location in the file.
+     * In write-back mode the node is marked dirty and moved to the top of the cache instead.
+     *
+     * @param node node to be updated
+     */
+    private void updateNode(BTreeNode node) throws IOException {
+        if (writeBack) {
+            node.dirty = true;
+            writeDirty(cache.add(node.address, node));
+        } else {
+            diskrw.updateNode(node);
+        }
+    }
+
+    /**
+     * Writes a node to the disk if it has been modified since it was last written
+     *
+     * @param node node removed from the cache, may be null
+     */
+    private void writeDirty(BTreeNode node) throws IOException {
+        if (node != null && node.dirty) {
+            diskrw.updateNode(node);
+            node.dirty = false;
+        }
+    }
 }
  
\ No newline at end of file
@@ -0,0 +1,235 @@
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Builds a BTree bottom-up from keys that are given in ascending order.
+ * Nodes are filled completely and appended to the end of the file as soon as they are complete,
+ * so the whole tree is written in one sequential pass without ever reading a node back.
+ * Only the two right-most nodes of each level are held in memory.
+ * <p>
+ * In a tree of compact nodes ({@link CompactNodeFormat}) a node is complete when the next key would not fit
+ * into its encoded size, or when it holds the maximum number of keys.
+ * <p>
+ * In a B+ tree ({@link BTree#FLAG_BPLUS}) every key stays in a leaf and a copy of the first key of each leaf but
+ * the first separates it from the previous leaf in the level above. The address of a leaf is reserved when the
+ * leaf is started, so the previous leaf can be linked to it before either is written.
+ */
+public class BTreeBuilder {
+
+    private final BTree tree;
+    private final DiskReadWrite diskrw;
+    private final int t; // degree/min children
+    private final int m; // order/max children
+    private final CompactNodeFormat compact; // null for the fixed format
+    private final boolean bplus; // keys are only stored in the leaves
+    private final List<Level> levels;
+    private long lastKey;
+    private boolean empty;
+    private boolean finished;
+
+    /**
+     * Creates a builder for an empty tree, use {@link BTree#bulkLoader()} to obtain one
+     *
+     * @param tree   the tree being built
+     * @param diskrw DiskReadWrite object of the tree
+     * @param t      degree of the tree
+     */
+    BTreeBuilder(BTree tree, DiskReadWrite diskrw, int t) {
+        this.tree = tree;
+        this.diskrw = diskrw;
+        this.t = t;
+        this.m = t * 2;
+        compact = diskrw.getCompactFormat();
+        bplus = (diskrw.getFlags() & BTree.FLAG_BPLUS) != 0;
+        levels = new ArrayList<>();
+        levels.add(new Level(true));
+        empty = true;
+        finished = false;
+    }
+
+    /**
+     * Adds the next key to the tree
+     *
+     * @param key       long representation of a DNA sequence, must be greater than the previous key
+     * @param frequency frequency of the sequence
+     */
+    public void add(long key, int frequency) throws IOException {
+        if (finished) throw new IllegalStateException("Builder has already been finished");
+        if (!empty && key <= lastKey) throw new IllegalArgumentException("Keys must be added in ascending order");
+        empty = false;
+        lastKey = key;
+        levels.get(0).add(key, frequency, 0);
+    }
+
+    /**
+     * Writes the remaining nodes of every level and updates the root of the tree
+     */
+    public void finish() throws IOException {
+        if (finished) return;
+        finished = true;
+        BTreeNode root = levels.get(0).finish(0);
+        if (root != null) tree.setRoot(root);
+    }
+
+    /**
+     * Holds the nodes of one level of the tree that have not been written yet
+     */
+    private class Level {
+        private final boolean leaf;
+        private BTreeNode current;
+        private BTreeNode previous;
+        private long separator;
+        private int separatorFrequency;
+        private int size; // encoded size of the keys and children of current, compact nodes only
+
+        /**
+         * @param leaf true if this is the bottom level of the tree
+         */
+        Level(boolean leaf) {
+            this.leaf = leaf;
+            current = newNode();
+        }
+
+        /**
+         * Adds a key and the child to the left of it to this level
+         *
+         * @param key       key to add
+         * @param frequency frequency of the key
+         * @param leftChild address of the child node preceding the key, 0 for leaves
+         */
+        void add(long key, int frequency, long leftChild) throws IOException {
+            current.children[current.n] = leftChild;
+            int entrySize = entrySize(key, frequency, leftChild);
+            if (current.n == m - 1 || (compact != null && size + entrySize > compact.capacity())) {
+                // current is full, the key separates it from the next node
+                if (previous != null) {
+                    write(previous);
+                    parent().add(separator, separatorFrequency, previous.address);
+                }
+                previous = current;
+                separator = key;
+                separatorFrequency = frequency;
+                current = newNode();
+                size = 0;
+                if (!(bplus && leaf)) return;
+                // the key also starts the next leaf
+                separatorFrequency = 0;
+                previous.next = current.address;
+                entrySize = entrySize(key, frequency, 0);
+            }
+            size += entrySize;
+            current.keys[current.n] = key;
+            current.frequencies[current.n] = frequency;
+            current.n++;
+        }
+
+        /**
+         * @param key       key to add to the current node
+         * @param frequency frequency of the key
+         * @param leftChild address of the child node preceding the key, 0 for leaves
+         * @return the encoded size of the key and its child in a compact node, 0 for the fixed format
+         */
+        private int entrySize(long key, int frequency, long leftChild) {
+            if (compact == null) return 0;
+            long previousKey = current.n == 0 ? 0 : current.keys[current.n - 1];
+            if (leaf) return compact.keySize(previousKey, key, frequency);
+            if (bplus) return compact.separatorSize(previousKey, key) + compact.childSize(leftChild);
+            return compact.keySize(previousKey, key, frequency) + compact.childSize(leftChild);
+        }
+
+        /**
+         * Writes the remaining nodes of this level and finishes the level above it
+         *
+         * @param lastChild address of the right-most child of this level, 0 for leaves
+         * @return the root of the tree, null if the tree is empty
+         */
+        BTreeNode finish(long lastChild) throws IOException {
+            current.children[current.n] = lastChild;
+
+            // the only node on the top level becomes the root
+            if (previous == null) {
+                if (current.n == 0) return null;
+                write(current);
+                return current;
+            }
+
+            // compact nodes are full by size, not by count, the last node of a level may hold fewer keys
+            if (current.n < t - 1 && compact == null) {
+                if (bplus && leaf) rebalanceLeaves();
+                else rebalance();
+            }
+            write(previous);
+            parent().add(separator, separatorFrequency, previous.address);
+            write(current);
+            return parent().finish(current.address);
+        }
+
+        /**
+         * Moves keys from the previous (full) leaf of a B+ tree into the current leaf so both hold at least t - 1 keys
+         */
+        private void rebalanceLeaves() {
+            int right = (previous.n + current.n) / 2;
+            int moved = right - current.n;
+            BTreeNode.copyKeys(current, 0, current, moved, current.n);
+            BTreeNode.copyKeys(previous, previous.n - moved, current, 0, moved);
+            previous.n -= moved;
+            current.n = right;
+            separator = current.keys[0];
+        }
+
+        /**
+         * @return a new empty node of this level, a leaf of a B+ tree already has its address
+         */
+        private BTreeNode newNode() {
+            BTreeNode node = new BTreeNode(t, leaf);
+            if (bplus && leaf) diskrw.allocateNode(node);
+            return node;
+        }
+
+        /**
+         * Writes a complete node of this level to the disk
+         *
+         * @param node node to be written
+         */
+        private void write(BTreeNode node) throws IOException {
+            if (bplus && leaf) diskrw.updateNode(node);
+            else diskrw.writeNode(node);
+        }
+
+        /**
+         * Moves keys from the previous (full) node into the current node so both hold at least t - 1 keys
+         */
+        private void rebalance() {
+            int total = previous.n + 1 + current.n;
+            BTreeNode combined = new BTreeNode(total / 2 + 1, leaf);
+            long[] children = new long[total + 1];
+            BTreeNode.copyKeys(previous, 0, combined, 0, previous.n);
+            combined.keys[previous.n] = separator;
+            combined.frequencies[previous.n] = separatorFrequency;
+            BTreeNode.copyKeys(current, 0, combined, previous.n + 1, current.n);
+            System.arraycopy(previous.children, 0, children, 0, previous.n + 1);
+            System.arraycopy(current.children, 0, children, previous.n + 1, current.n + 1);
+
+            int right = (total - 1) / 2;
+            int left = total - 1 - right;
+            BTreeNode.copyKeys(combined, 0, previous, 0, left);
+            System.arraycopy(children, 0, previous.children, 0, left + 1);
+            previous.n = left;
+            separator = combined.keys[left];
+            separatorFrequency = combined.frequencies[left];
+            BTreeNode.copyKeys(combined, left + 1, current, 0, right);
+            System.arraycopy(children, left + 1, current.children, 0, right + 1);
+            current.n = right;
+        }
+
+        /**
+         * @return the level above this one, created if necessary
+         */
+        private Level parent() {
+            int height = levels.indexOf(this);
+            if (height == levels.size() - 1) levels.add(new Level(false));
+            return levels.get(height + 1);
+        }
+    }
+}
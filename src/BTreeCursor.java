@@ -0,0 +1,174 @@
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Iterates over the keys of a BTree in ascending order.
+ * Only the nodes on the path from the root to the current key are held, one per level of the tree, so a cursor
+ * over a tree of any size uses constant memory. Nodes are read directly from the file, past the cache of the tree.
+ * Obtain a cursor with {@link BTree#cursor()} or {@link BTree#scan(long, long)}; the tree must not be modified
+ * while the cursor is used.
+ * <p>
+ * A cursor over a range of keys starts with one descent to the first key of the range and stops at the first
+ * key past the range, so it reads only the nodes that hold keys of the range and the nodes above them.
+ * <p>
+ * In a B+ tree ({@link BTree#FLAG_BPLUS}) all keys are in the leaves, which are linked from left to right.
+ * After the first descent the cursor only follows these links, holding one leaf at a time.
+ */
+public class BTreeCursor {
+
+    private static final KeySearch KEY_SEARCH = KeySearch.get();
+    private final DiskReadWrite diskrw;
+    private final boolean bplus; // leaves are linked, the path holds only the current leaf
+    private final boolean bounded; // false to visit every key
+    private final long hi; // greatest key of the range, bounded cursors only
+    private final List<BTreeNode> path; // nodes from the root down to the node of the next key
+    private int[] positions; // index of the next key in each node of the path
+    private long highKey;
+    private long key;
+    private int frequency;
+
+    /**
+     * Creates a cursor positioned before the smallest key, use {@link BTree#cursor()} to obtain one
+     *
+     * @param diskrw      DiskReadWrite object of the tree
+     * @param rootAddress address of the root node, 0 for an empty tree
+     */
+    BTreeCursor(DiskReadWrite diskrw, long rootAddress) throws IOException {
+        this.diskrw = diskrw;
+        path = new ArrayList<>();
+        positions = new int[8];
+        bplus = (diskrw.getFlags() & BTree.FLAG_BPLUS) != 0;
+        bounded = false;
+        hi = 0;
+        if (rootAddress != 0) descend(rootAddress);
+    }
+
+    /**
+     * Creates a cursor over the keys from lo to hi (inclusive), positioned before the first of them,
+     * use {@link BTree#scan(long, long)} to obtain one
+     *
+     * @param diskrw      DiskReadWrite object of the tree, with narrow keys
+     * @param rootAddress address of the root node, 0 for an empty tree
+     * @param lo          smallest key of the range
+     * @param hi          greatest key of the range
+     */
+    BTreeCursor(DiskReadWrite diskrw, long rootAddress, long lo, long hi) throws IOException {
+        this.diskrw = diskrw;
+        path = new ArrayList<>();
+        positions = new int[8];
+        bplus = (diskrw.getFlags() & BTree.FLAG_BPLUS) != 0;
+        bounded = true;
+        this.hi = hi;
+        if (rootAddress != 0 && lo <= hi) seek(rootAddress, lo);
+    }
+
+    /**
+     * Moves to the next key
+     *
+     * @return true if the cursor is on a key, false once all keys (of the range) have been visited
+     */
+    public boolean next() throws IOException {
+        while (!path.isEmpty()) {
+            int depth = path.size() - 1;
+            BTreeNode node = path.get(depth);
+            int i = positions[depth];
+            if (i < node.n) {
+                if (bounded && node.keys[i] > hi) {
+                    // every following key is past the range as well
+                    path.clear();
+                    return false;
+                }
+                highKey = node.highKeys == null ? 0 : node.highKeys[i];
+                key = node.keys[i];
+                frequency = node.frequencies[i];
+                positions[depth] = i + 1;
+                // the keys of the right child follow the key, none of them is in the range if the key is its end
+                if (!node.leaf && (!bounded || key < hi)) descend(node.children[i + 1]);
+                return true;
+            }
+            path.remove(depth);
+            if (bplus && node.next != 0) push(diskrw.readNode(node.next), 0);
+        }
+        return false;
+    }
+
+    /**
+     * @return the (low word of the) current key
+     */
+    public long getKey() {
+        return key;
+    }
+
+    /**
+     * @return the high word of the current key, 0 unless the tree has wide keys
+     */
+    public long getHighKey() {
+        return highKey;
+    }
+
+    /**
+     * @return the frequency of the current key
+     */
+    public int getFrequency() {
+        return frequency;
+    }
+
+    /**
+     * Adds a node and its left-most descendants to the path
+     *
+     * @param address address of the node
+     */
+    private void descend(long address) throws IOException {
+        while (true) {
+            BTreeNode node = diskrw.readNode(address);
+            if (node.leaf) {
+                push(node, 0);
+                return;
+            }
+            if (!bplus) push(node, 0);
+            address = node.children[0];
+        }
+    }
+
+    /**
+     * Adds the path from a node to the first key that is not less than a given key
+     *
+     * @param address address of the node
+     * @param lo      key to position the cursor before
+     */
+    private void seek(long address, long lo) throws IOException {
+        while (true) {
+            BTreeNode node = diskrw.readNode(address);
+            int i = KEY_SEARCH.lowerBound(node.keys, node.n, lo);
+            if (node.leaf) {
+                push(node, i);
+                return;
+            }
+            if (bplus) {
+                // a separator equal to lo is the first key of the right subtree
+                if (i < node.n && node.keys[i] == lo) i++;
+            } else {
+                push(node, i);
+            }
+            // the keys of child i lie between keys i - 1 and i
+            address = node.children[i];
+        }
+    }
+
+    /**
+     * Adds a node to the end of the path
+     *
+     * @param node     node below the last node of the path
+     * @param position index of the next key in the node
+     */
+    private void push(BTreeNode node, int position) {
+        if (path.size() == positions.length) {
+            int[] grown = new int[positions.length * 2];
+            System.arraycopy(positions, 0, grown, 0, positions.length);
+            positions = grown;
+        }
+        positions[path.size()] = position;
+        path.add(node);
+    }
+}
@@ -1,5 +1,9 @@
 /**
- * Represents a BTree node which holds an array of TreeObjects and an array of child pointers
+ * Represents a BTree node which holds its keys, their frequencies and its child pointers in primitive arrays.
+ * Keys are stored next to each other (struct of arrays) so the in-node scans stay in one cache-friendly array;
+ * TreeObject is only used to return a key and its frequency to callers of the BTree.
+ * Nodes of trees with wide keys (sequences longer than 31 bases) also hold the high word of each key;
+ * wide keys are ordered by their high word, then by their low word (in keys) compared as unsigned.
  */
 @SuppressWarnings("CanBeFinal")
 public class BTreeNode {
@@ -9,8 +13,12 @@ public class BTreeNode {
     protected long address;
     protected int n;
     protected boolean leaf;
-    protected TreeObject[] keys;
+    protected long[] keys;
+    protected long[] highKeys; // null unless the tree has wide keys
+    protected int[] frequencies;
     protected long[] children;
+    protected long next; // leaves of a B+ tree: address of the next leaf, 0 for the last leaf
+    protected boolean dirty; // modified in the cache but not yet written to the disk
 
     /**
      * Constructor, creates a new node for the BTree
@@ -19,17 +27,95 @@ public class BTreeNode {
      * @param leaf true if the new node is a leaf node
      */
     public BTreeNode(int t, boolean leaf) {
+        this(t, leaf, false);
+    }
+
+    /**
+     * Constructor, creates a new node for a BTree with narrow or wide keys
+     *
+     * @param t    degree of tree, used to allocate memory for arrays
+     * @param leaf true if the new node is a leaf node
+     * @param wide true if the keys have a high word
+     */
+    public BTreeNode(int t, boolean leaf, boolean wide) {
         this.leaf = leaf;
-        this.keys = new TreeObject[2 * t - 1];
+        this.keys = new long[2 * t - 1];
+        if (wide) this.highKeys = new long[2 * t - 1];
+        this.frequencies = new int[2 * t - 1];
         this.children = new long[2 * t];
         this.n = 0;
     }
 
     /**
-     * @param degree tree degree
-     * @return the size of the node in bytes
+     * @param i index of a key
+     * @return a TreeObject holding the key and its frequency
+     */
+    public TreeObject getTreeObject(int i) {
+        if (highKeys != null) return new TreeObject(highKeys[i], keys[i], frequencies[i]);
+        return new TreeObject(keys[i], frequencies[i]);
+    }
+
+    /**
+     * Compares a key of the node with another key
+     *
+     * @param i       index of a key of the node
+     * @param highKey high word of the other key, 0 for narrow keys
+     * @param key     (low word of the) other key
+     * @return a negative number, 0 or a positive number if the key of the node is less than, equal to or
+     * greater than the other key
+     */
+    public int compareKey(int i, long highKey, long key) {
+        if (highKeys == null) return Long.compare(keys[i], key);
+        if (highKeys[i] != highKey) return Long.compare(highKeys[i], highKey);
+        return Long.compareUnsigned(keys[i], key);
+    }
+
+    /**
+     * Stores a key and its frequency
+     *
+     * @param i         index of the key
+     * @param highKey   high word of the key, ignored for narrow keys
+     * @param key       (low word of the) key
+     * @param frequency frequency of the key
+     */
+    public void setKey(int i, long highKey, long key, int frequency) {
+        keys[i] = key;
+        if (highKeys != null) highKeys[i] = highKey;
+        frequencies[i] = frequency;
+    }
+
+    /**
+     * Copies keys and their frequencies from one node to another (or within a node), like System.arraycopy
+     *
+     * @param src     source node
+     * @param srcPos  index of the first key to copy
+     * @param dest    destination node
+     * @param destPos index the first key is copied to
+     * @param length  number of keys to copy
+     */
+    public static void copyKeys(BTreeNode src, int srcPos, BTreeNode dest, int destPos, int length) {
+        System.arraycopy(src.keys, srcPos, dest.keys, destPos, length);
+        if (src.highKeys != null) System.arraycopy(src.highKeys, srcPos, dest.highKeys, destPos, length);
+        System.arraycopy(src.frequencies, srcPos, dest.frequencies, destPos, length);
+    }
+
+    /**
+     * @param t       degree of the tree, i.e. minimum number of children
+     * @param keySize size of a key and its frequency on the disk, TreeObject.DISK_SIZE or TreeObject.WIDE_DISK_SIZE
+     * @return the number of bytes DiskReadWrite writes for a node: n, leaf, 2t - 1 key slots and 2t children
+     */
+    public static int getDiskSize(int t, int keySize) {
+        return METADATA_SIZE + keySize * (t * 2 - 1) + Long.BYTES * t * 2;
+    }
+
+    /**
+     * Finds the largest degree whose encoded nodes fit into a page
+     *
+     * @param pageSize size of a page in bytes
+     * @param keySize  size of a key and its frequency on the disk
+     * @return minimum number of children t of a tree with nodes of at most pageSize bytes
      */
-    public static int getDiskSize(int degree) {
-        return METADATA_SIZE + TreeObject.DISK_SIZE * (degree * 2 - 1) + Long.BYTES * degree * 2;
+    public static int getDegree(int pageSize, int keySize) {
+        return (pageSize - METADATA_SIZE + keySize) / (2 * (keySize + Long.BYTES));
     }
 }
@@ -0,0 +1,161 @@
+import java.nio.ByteBuffer;
+
+/**
+ * Read-only view of a node stored on the disk.
+ * Instead of creating a BTreeNode and one TreeObject per key, the view decodes the key, frequency
+ * and child fields on demand from the buffer holding the encoded node. A view is reused for every node
+ * visited, so searching the tree through views allocates nothing per node.
+ * Views are obtained from {@link DiskReadWrite#newView()} and filled by {@link DiskReadWrite#readView}.
+ * <p>
+ * Compact nodes ({@link CompactNodeFormat}) cannot be read at fixed offsets, they are decoded into arrays
+ * owned by the view when the view is pointed at them.
+ */
+public class BTreeNodeView {
+
+    private final ByteBuffer ownBuffer;
+    private final int keySlots;
+    private final int keySize; // size of a key and its frequency on the disk
+    private final int keyOffset; // offset of the (low word of the) key within its slot
+    private final CompactNodeFormat compact; // null for the fixed format
+    private long[] keys; // decoded content of a compact node
+    private int[] frequencies;
+    private long[] children;
+    private int n;
+    private boolean leaf;
+    private ByteBuffer source;
+    private int base;
+    private long address;
+
+    /**
+     * @param degree   order of the tree as stored in the file (maximum number of children)
+     * @param nodeSize size of a node on the disk in bytes
+     * @param wide     true if the keys have a high word
+     * @param compact  format of compact nodes, null for the fixed format
+     */
+    BTreeNodeView(int degree, int nodeSize, boolean wide, CompactNodeFormat compact) {
+        ownBuffer = ByteBuffer.allocateDirect(nodeSize);
+        keySlots = degree - 1;
+        keySize = wide ? TreeObject.WIDE_DISK_SIZE : TreeObject.DISK_SIZE;
+        keyOffset = wide ? Long.BYTES : 0;
+        this.compact = compact;
+        if (compact != null) {
+            keys = new long[keySlots];
+            frequencies = new int[keySlots];
+            children = new long[degree];
+        }
+    }
+
+    /**
+     * @return a buffer owned by this view that a node can be read into
+     */
+    ByteBuffer buffer() {
+        return ownBuffer;
+    }
+
+    /**
+     * Points the view at an encoded node
+     *
+     * @param source  buffer holding the encoded node
+     * @param base    index of the first byte of the node in the buffer
+     * @param address address of the node in the file
+     */
+    void wrap(ByteBuffer source, int base, long address) {
+        this.source = source;
+        this.base = base;
+        this.address = address;
+        if (compact != null) {
+            // the source may be shared with other threads, decode through a private position
+            ByteBuffer node = source.duplicate();
+            node.position(base);
+            leaf = node.get(base) == 1;
+            n = compact.decode(node, keys, frequencies, children);
+        }
+    }
+
+    /**
+     * @return address of the node in the file
+     */
+    public long getAddress() {
+        return address;
+    }
+
+    /**
+     * @return number of keys in the node
+     */
+    public int getN() {
+        if (compact != null) return n;
+        return source.getInt(base);
+    }
+
+    /**
+     * @return true if the node is a leaf
+     */
+    public boolean isLeaf() {
+        if (compact != null) return leaf;
+        return source.get(base + Integer.BYTES) == 1;
+    }
+
+    /**
+     * @param i index of a key
+     * @return the key (long representation of a DNA sequence)
+     */
+    public long getKey(int i) {
+        if (compact != null) return keys[i];
+        return source.getLong(base + BTreeNode.METADATA_SIZE + i * keySize + keyOffset);
+    }
+
+    /**
+     * @param i index of a key
+     * @return the high word of a wide key
+     */
+    public long getHighKey(int i) {
+        return source.getLong(base + BTreeNode.METADATA_SIZE + i * keySize);
+    }
+
+    /**
+     * @param i index of a key
+     * @return the frequency of the key
+     */
+    public int getFrequency(int i) {
+        if (compact != null) return frequencies[i];
+        return source.getInt(base + BTreeNode.METADATA_SIZE + i * keySize + keyOffset + Long.BYTES);
+    }
+
+    /**
+     * Finds the first key of the node that is not less than the target key with a branch-free binary search.
+     * Keys are interleaved with their frequencies on the disk, so the vector search does not apply to views.
+     * Only for narrow keys.
+     *
+     * @param key key to search for
+     * @return index of the first key greater than or equal to key, n if there is none
+     */
+    public int lowerBound(long key) {
+        int n = getN();
+        if (n == 0) return 0;
+        int base = 0;
+        int len = n;
+        while (len > 1) {
+            int half = len >>> 1;
+            base = getKey(base + half) < key ? base + half : base;
+            len -= half;
+        }
+        return base + (getKey(base) < key ? 1 : 0);
+    }
+
+    /**
+     * @param i index of a child
+     * @return the address of the child node
+     */
+    public long getChild(int i) {
+        if (compact != null) return children[i];
+        return source.getLong(base + BTreeNode.METADATA_SIZE + keySlots * keySize + i * Long.BYTES);
+    }
+
+    /**
+     * @return the address of the next leaf of a B+ tree, 0 for the last leaf, only for leaves
+     */
+    public long getNext() {
+        // the first child slot of a leaf holds the link
+        return getChild(0);
+    }
+}
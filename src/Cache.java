@@ -1,26 +1,26 @@
+import java.util.ArrayList;
+import java.util.List;
+
 /**
- * This class represents a Cache object which uses a linked-list implementation
- * to store objects. Cache contains methods necessary to find and remove objects
- * to add/move data to the top of the cache. Additionally, Cache contains
- * information about the number of hits, accesses/references, and hit rate.
- * <p>
- * Movement of items to the top of cache will be handled by the application
- * using the cache.
- * <p>
- * Note: The end of the list is the top of the cache.
+ * Base class of the caches used by the BTree. A cache holds a limited number of objects
+ * referenced by primitive long keys (e.g. node addresses); subclasses decide which object is
+ * removed when the cache is full. Cache keeps information about the number of hits,
+ * accesses/references, misses, and hit rate for every replacement policy.
  *
- * @param <K> type of key used to reference the objects in the cache
  * @param <T> type of objects to be stored
  * @version Spring2022
  */
 @SuppressWarnings("unused")
-public class Cache<K, T> {
-    private final int capacity;
-    private CacheNode<K, T> head;
-    private CacheNode<K, T> tail;
-    private int count;
-    private int accesses;
-    private int hits;
+public abstract class Cache<T> {
+
+    /**
+     * names of the available replacement policies
+     */
+    public static final String[] POLICIES = {"lru", "clock", "2q", "arc", "tinylfu"};
+
+    protected final int capacity;
+    private long accesses;
+    private long hits;
 
     /**
      * Initializes a new cache of given size and sets default values for instance
@@ -28,92 +28,117 @@ public class Cache<K, T> {
      *
      * @param capacity size of the Cache
      */
-    public Cache(int capacity) {
+    protected Cache(int capacity) {
         this.capacity = capacity;
-        count = 0;
         accesses = 0;
         hits = 0;
     }
 
     /**
-     * Adds an object to the top of the cache
+     * Creates a cache with the named replacement policy
      *
-     * @param key  key of new object
-     * @param data object to be added
+     * @param policy   one of lru, clock, 2q, arc or tinylfu
+     * @param capacity size of the Cache
+     * @param <T>      type of objects to be stored
+     * @return a new empty cache
+     * @throws IllegalArgumentException if the policy name is unknown
      */
-    public void add(K key, T data) {
-        add(new CacheNode<>(key, data));
+    public static <T> Cache<T> create(String policy, int capacity) {
+        switch (policy.toLowerCase()) {
+            case "lru":
+                return new LRUCache<>(capacity);
+            case "clock":
+                return new ClockCache<>(capacity);
+            case "2q":
+                return new TwoQueueCache<>(capacity);
+            case "arc":
+                return new ARCCache<>(capacity);
+            case "tinylfu":
+            case "w-tinylfu":
+                return new TinyLFUCache<>(capacity);
+            default:
+                throw new IllegalArgumentException("Error: Unknown cache policy " + policy);
+        }
     }
 
     /**
-     * Adds a new CacheNode to the top of the cache
+     * Retrieves an object from the cache and records the access
      *
-     * @param node CacheNode to be added
+     * @param key key of object to search for
+     * @return the object with the corresponding key, null if it does not exist
      */
-    private void add(CacheNode<K, T> node) {
-        // check if cache is empty
-        if (isEmpty()) {
-            head = node;
-            node.setPrevious(null);
-        } else {
-            // if cache is full remove head
-            if (count == capacity) {
-                remove(head);
-            }
-            // add object to top of cache
-            node.setPrevious(tail);
-            tail.setNext(node);
-        }
-        node.setNext(null);
-        tail = node;
-        count++;
+    public T getObject(long key) {
+        accesses++;
+        T object = lookup(key);
+        if (object != null) hits++;
+        return object;
     }
 
     /**
-     * Removes a CacheObject from the cache
+     * Adds an object to the cache, replacing the object with the same key if there is one.
+     * Does not count as an access.
      *
-     * @param key key of object to remove
+     * @param key  key of the object
+     * @param data object to be stored
+     * @return the object removed from the cache to make room (possibly data itself,
+     * if the policy refuses to admit it), null if none was removed
      */
-    public void remove(K key) {
-        remove(find(key));
-    }
+    public abstract T add(long key, T data);
 
     /**
-     * Moves a CacheNode to the top of the cache
+     * Removes an object from the cache
      *
-     * @param node CacheNode to be moved
+     * @param key key of object to remove
+     * @return the removed object, null if it was not in the cache
      */
-    private void move(CacheNode<K, T> node) {
-        remove(node);
-        add(node);
-    }
+    public abstract T remove(long key);
+
+    /**
+     * @return every object in the cache
+     */
+    public abstract List<T> getObjects();
+
+    /**
+     * @return number of objects in the cache
+     */
+    public abstract int size();
+
+    /**
+     * deletes all cache contents
+     */
+    public abstract void clear();
 
     /**
-     * Retrieves an object from the cache and moves it to the top
+     * @return name of the replacement policy
+     */
+    public abstract String getPolicy();
+
+    /**
+     * Finds an object and updates the replacement state for a reference to it
      *
      * @param key key of object to search for
      * @return the object with the corresponding key, null if it does not exist
      */
-    public T getObject(K key) {
-        accesses++;
-        CacheNode<K, T> node = find(key);
-        if (node == null) return null;
-        hits++;
-        move(node);
-        return node.getElement();
-    }
+    protected abstract T lookup(long key);
 
     /**
      * @return number of cache hits
      */
-    public int getHits() {
+    public long getHits() {
         return hits;
     }
 
+    /**
+     * @return number of cache misses
+     */
+    public long getMisses() {
+        return accesses - hits;
+    }
+
     /**
      * @return number of cache accesses
      */
-    public int getAccesses() {
+    public long getAccesses() {
         return accesses;
     }
 
@@ -130,64 +155,34 @@ public class Cache<K, T> {
     }
 
     /**
-     * deletes all cache contents and resets the cache variables
+     * @return a one line summary of the hit and miss statistics
      */
-    public void clear() {
-        head = tail = null;
-        count = 0;
+    public String getStatistics() {
+        return String.format("Cache(%s, %d): accesses %d, hits %d, misses %d, hit rate %.4f",
+                getPolicy(), capacity, accesses, hits, getMisses(), getHitRate());
     }
 
     /**
      * @return true if cache is empty, false otherwise
      */
     public boolean isEmpty() {
-        return (count == 0);
-    }
-
-    /**
-     * Searches the cache (from top to bottom) for the target object. If found, the
-     * corresponding CacheNode is returned.
-     *
-     * @param key key of target object
-     * @return the node containing the target object from the cache, null if the
-     * target object is not in the cache
-     */
-    private CacheNode<K, T> find(K key) {
-        // search from top of cache
-        CacheNode<K, T> current = tail;
-        while (current != null && !current.getKey().equals(key)) {
-            current = current.previous();
-        }
-        return current;
+        return size() == 0;
     }
 
     /**
-     * Remove the node from the cache
+     * Collects the objects of several lists of a CacheLists, bottom to top
      *
-     * @param node the node to be removed
-     */
-    private void remove(CacheNode<K, T> node) {
-        if (node != null) {
-            if (node == tail) {
-                // if node is the only object in the list
-                if (node == head) {
-                    head = tail = null;
-                } else {
-                    // if node is at top of cache
-                    tail = tail.previous();
-                    tail.setNext(null);
-                }
-            } else if (node == head) {
-                // if node is at bottom of cache
-                head = head.next();
-                head.setPrevious(null);
-            } else {
-                // if node is in middle of cache
-                node.previous().setNext(node.next());
-                node.next().setPrevious(node.previous());
+     * @param lists     storage of the cache
+     * @param fromLists indices of the lists holding objects
+     * @return the objects of the lists
+     */
+    protected List<T> collect(CacheLists<T> lists, int... fromLists) {
+        List<T> objects = new ArrayList<>();
+        for (int from : fromLists) {
+            for (int slot = lists.bottom(from); slot != CacheLists.NONE; slot = lists.above(slot)) {
+                objects.add(lists.element(slot));
             }
-            count--;
         }
+        return objects;
     }
-
 }
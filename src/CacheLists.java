@@ -0,0 +1,248 @@
+import java.util.Arrays;
+
+/**
+ * Storage shared by the cache replacement policies.
+ * Holds a fixed number of entry slots in parallel arrays. Every used slot belongs to one of several
+ * doubly-linked lists (e.g. the recency list of LRU, or the resident and ghost lists of ARC) and is
+ * found by key through an open-addressing hash table, so every operation takes constant time.
+ * The bottom (head) of a list is its least recently added entry, the top (tail) its most recent.
+ *
+ * @param <T> type of objects to be stored
+ */
+class CacheLists<T> {
+
+    static final int NONE = -1;
+
+    private final long[] keys;
+    private final Object[] elements;
+    private final int[] list;
+    private final int[] previous;
+    private final int[] next;
+    private final int[] heads;
+    private final int[] tails;
+    private final int[] sizes;
+    // hash table of slot indices
+    private final int[] table;
+    private final int mask;
+    private int free; // first slot of the list of unused slots
+
+    /**
+     * @param slots number of entries that can be stored
+     * @param lists number of lists
+     */
+    CacheLists(int slots, int lists) {
+        keys = new long[slots];
+        elements = new Object[slots];
+        list = new int[slots];
+        previous = new int[slots];
+        next = new int[slots];
+        heads = new int[lists];
+        tails = new int[lists];
+        sizes = new int[lists];
+        int tableSize = 2;
+        while (tableSize < slots * 2) tableSize <<= 1;
+        table = new int[tableSize];
+        mask = tableSize - 1;
+        clear();
+    }
+
+    /**
+     * Removes every entry from every list
+     */
+    void clear() {
+        Arrays.fill(table, NONE);
+        Arrays.fill(elements, null);
+        for (int i = 0; i < next.length; i++) {
+            next[i] = i + 1 < next.length ? i + 1 : NONE;
+        }
+        free = next.length > 0 ? 0 : NONE;
+        Arrays.fill(heads, NONE);
+        Arrays.fill(tails, NONE);
+        Arrays.fill(sizes, 0);
+    }
+
+    /**
+     * @param key key of target entry
+     * @return the slot holding the entry, NONE if there is no entry with this key
+     */
+    int find(long key) {
+        int i = hash(key);
+        while (table[i] != NONE) {
+            if (keys[table[i]] == key) return table[i];
+            i = (i + 1) & mask;
+        }
+        return NONE;
+    }
+
+    /**
+     * Adds a new entry to the top of a list
+     *
+     * @param key     key of the entry, must not be stored already
+     * @param element object to store, may be null for entries that only remember a key
+     * @param to      list to add the entry to
+     * @return the slot of the new entry
+     */
+    int insert(long key, T element, int to) {
+        int slot = free;
+        free = next[slot];
+        keys[slot] = key;
+        elements[slot] = element;
+        int i = hash(key);
+        while (table[i] != NONE) i = (i + 1) & mask;
+        table[i] = slot;
+        link(slot, to);
+        return slot;
+    }
+
+    /**
+     * Removes an entry from its list and from the hash table
+     *
+     * @param slot slot of the entry
+     */
+    void delete(int slot) {
+        unlink(slot);
+        removeFromTable(slot);
+        elements[slot] = null;
+        next[slot] = free;
+        free = slot;
+    }
+
+    /**
+     * Moves an entry to the top of a list (the same or another one)
+     *
+     * @param slot slot of the entry
+     * @param to   list to move the entry to
+     */
+    void moveToTop(int slot, int to) {
+        unlink(slot);
+        link(slot, to);
+    }
+
+    /**
+     * @param from list index
+     * @return the slot at the bottom of the list, NONE if the list is empty
+     */
+    int bottom(int from) {
+        return heads[from];
+    }
+
+    /**
+     * @param slot slot of an entry
+     * @return the slot above it in the same list, NONE if it is at the top
+     */
+    int above(int slot) {
+        return next[slot];
+    }
+
+    /**
+     * @param from list index
+     * @return number of entries in the list
+     */
+    int size(int from) {
+        return sizes[from];
+    }
+
+    /**
+     * @param slot slot of an entry
+     * @return the list the entry belongs to
+     */
+    int listOf(int slot) {
+        return list[slot];
+    }
+
+    /**
+     * @param slot slot of an entry
+     * @return the key of the entry
+     */
+    long key(int slot) {
+        return keys[slot];
+    }
+
+    /**
+     * @param slot slot of an entry
+     * @return the object stored in the entry
+     */
+    @SuppressWarnings("unchecked")
+    T element(int slot) {
+        return (T) elements[slot];
+    }
+
+    /**
+     * @param slot    slot of an entry
+     * @param element object to store in the entry
+     */
+    void setElement(int slot, T element) {
+        elements[slot] = element;
+    }
+
+    /**
+     * Adds a slot to the top of a list
+     *
+     * @param slot slot to add
+     * @param to   list index
+     */
+    private void link(int slot, int to) {
+        list[slot] = to;
+        previous[slot] = tails[to];
+        next[slot] = NONE;
+        if (tails[to] == NONE) {
+            heads[to] = slot;
+        } else {
+            next[tails[to]] = slot;
+        }
+        tails[to] = slot;
+        sizes[to]++;
+    }
+
+    /**
+     * Removes a slot from its list
+     *
+     * @param slot slot to remove
+     */
+    private void unlink(int slot) {
+        int from = list[slot];
+        if (previous[slot] == NONE) {
+            heads[from] = next[slot];
+        } else {
+            next[previous[slot]] = next[slot];
+        }
+        if (next[slot] == NONE) {
+            tails[from] = previous[slot];
+        } else {
+            previous[next[slot]] = previous[slot];
+        }
+        sizes[from]--;
+    }
+
+    /**
+     * Removes a slot from the hash table, shifting back later entries of the probe sequence
+     *
+     * @param slot slot to remove
+     */
+    private void removeFromTable(int slot) {
+        int i = hash(keys[slot]);
+        while (table[i] != slot) i = (i + 1) & mask;
+        int j = i;
+        while (true) {
+            j = (j + 1) & mask;
+            if (table[j] == NONE) break;
+            int home = hash(keys[table[j]]);
+            // move the entry at j into the hole at i unless its home slot lies cyclically in (i, j]
+            boolean stays = (i <= j) ? (i < home && home <= j) : (i < home || home <= j);
+            if (!stays) {
+                table[i] = table[j];
+                i = j;
+            }
+        }
+        table[i] = NONE;
+    }
+
+    /**
+     * @param key key to hash
+     * @return home position of the key in the hash table
+     */
+    private int hash(long key) {
+        long h = key * 0x9E3779B97F4A7C15L;
+        return (int) (h ^ (h >>> 32)) & mask;
+    }
+}
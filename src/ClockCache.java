@@ -0,0 +1,88 @@
+import java.util.List;
+
+/**
+ * CLOCK (second chance) replacement: a hit only sets the reference bit of the object.
+ * When the cache is full the hand sweeps from the oldest object, clearing set reference bits and
+ * giving those objects another round, and removes the first object whose bit is clear.
+ * Hits are cheaper than in LRU because nothing is moved.
+ *
+ * @param <T> type of objects to be stored
+ */
+public class ClockCache<T> extends Cache<T> {
+
+    private static final int RING = 0;
+
+    private final CacheLists<T> lists;
+    private final boolean[] referenced;
+
+    /**
+     * @param capacity size of the Cache
+     */
+    public ClockCache(int capacity) {
+        super(capacity);
+        lists = new CacheLists<>(capacity, 1);
+        referenced = new boolean[capacity];
+    }
+
+    @Override
+    protected T lookup(long key) {
+        int slot = lists.find(key);
+        if (slot == CacheLists.NONE) return null;
+        referenced[slot] = true;
+        return lists.element(slot);
+    }
+
+    @Override
+    public T add(long key, T data) {
+        int slot = lists.find(key);
+        if (slot != CacheLists.NONE) {
+            lists.setElement(slot, data);
+            referenced[slot] = true;
+            return null;
+        }
+        T evicted = null;
+        if (lists.size(RING) == capacity) {
+            // the bottom of the ring is the position of the hand
+            int hand = lists.bottom(RING);
+            while (referenced[hand]) {
+                referenced[hand] = false;
+                lists.moveToTop(hand, RING);
+                hand = lists.bottom(RING);
+            }
+            evicted = lists.element(hand);
+            lists.delete(hand);
+        }
+        slot = lists.insert(key, data, RING);
+        referenced[slot] = false;
+        return evicted;
+    }
+
+    @Override
+    public T remove(long key) {
+        int slot = lists.find(key);
+        if (slot == CacheLists.NONE) return null;
+        T element = lists.element(slot);
+        lists.delete(slot);
+        return element;
+    }
+
+    @Override
+    public List<T> getObjects() {
+        return collect(lists, RING);
+    }
+
+    @Override
+    public int size() {
+        return lists.size(RING);
+    }
+
+    @Override
+    public void clear() {
+        lists.clear();
+    }
+
+    @Override
+    public String getPolicy() {
+        return "clock";
+    }
+}
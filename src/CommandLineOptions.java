@@ -0,0 +1,102 @@
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Separates optional command line flags from positional arguments.
+ * Flags take the form --name or --name=value and may appear anywhere in the argument list,
+ * all other arguments are kept (in order) as positional arguments.
+ */
+public class CommandLineOptions {
+
+    private static final String PREFIX = "--";
+
+    private final String[] positionalArgs;
+    private final Map<String, String> options;
+
+    /**
+     * Splits the command line arguments into flags and positional arguments
+     *
+     * @param args command line arguments
+     */
+    public CommandLineOptions(String[] args) {
+        List<String> positional = new ArrayList<>();
+        options = new HashMap<>();
+        for (String arg : args) {
+            if (arg.startsWith(PREFIX) && arg.length() > PREFIX.length()) {
+                int split = arg.indexOf('=');
+                if (split == -1) {
+                    options.put(arg.substring(PREFIX.length()), null);
+                } else {
+                    options.put(arg.substring(PREFIX.length(), split), arg.substring(split + 1));
+                }
+            } else {
+                positional.add(arg);
+            }
+        }
+        positionalArgs = positional.toArray(new String[0]);
+    }
+
+    /**
+     * @return the arguments that are not flags, in their original order
+     */
+    public String[] getPositionalArgs() {
+        return positionalArgs;
+    }
+
+    /**
+     * @param name name of the flag (without the leading --)
+     * @return true if the flag was given
+     */
+    public boolean has(String name) {
+        return options.containsKey(name);
+    }
+
+    /**
+     * @param name         name of the flag (without the leading --)
+     * @param defaultValue value returned if the flag was not given
+     * @return the value of the flag, or the default value
+     */
+    public String get(String name, String defaultValue) {
+        String value = options.get(name);
+        return value == null ? defaultValue : value;
+    }
+
+    /**
+     * @param name         name of the flag (without the leading --)
+     * @param defaultValue value returned if the flag was not given
+     * @return the integer value of the flag, or the default value
+     * @throws IllegalArgumentException if the flag has a value that is not an integer
+     */
+    public int getInt(String name, int defaultValue) {
+        String value = options.get(name);
+        if (value == null) return defaultValue;
+        try {
+            return Integer.parseInt(value);
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("Error: Invalid input for --" + name);
+        }
+    }
+
+    /**
+     * Verifies that every given flag is one of the supported flags
+     *
+     * @param names names of supported flags
+     * @throws IllegalArgumentException if an unsupported flag was given
+     */
+    public void verifyNames(String... names) {
+        for (String option : options.keySet()) {
+            boolean found = false;
+            for (String name : names) {
+                if (name.equals(option)) {
+                    found = true;
+                    break;
+                }
+            }
+            if (!found) {
+                throw new IllegalArgumentException("Error: Unknown option --" + option);
+            }
+        }
+    }
+}
@@ -0,0 +1,193 @@
+import java.nio.ByteBuffer;
+
+/**
+ * Compact on-disk format of a node, used by trees with {@link BTree#FLAG_COMPACT}.
+ * Instead of a fixed slot for every possible key and child, a node stores only what it holds:
+ * Bytes|  1 | varint |  varint  | varint |...|  varint  |...
+ *      |leaf|   n    |key delta | freq   |...| child    |...
+ * The first key is stored as is, every following key as its difference to the previous key. The keys of a
+ * node are sorted and share their leading bases, so the differences are small numbers. Frequencies are
+ * mostly small as well. Numbers are written as varints, 7 bits per byte, so a small number takes one byte.
+ * Children (internal nodes only) are stored as node indices, (address - metadata size) / node size,
+ * instead of byte offsets.
+ * <p>
+ * Every node still occupies NODE_SIZE bytes of the file, so a node index gives its address, but a node is
+ * full when its encoded keys fill the node instead of at a fixed number of keys. Nodes hold several times
+ * more keys than the fixed format, which makes the tree shallower and the file smaller. The encoded size of
+ * a node depends on its content, so nodes are only written by the BTreeBuilder and such trees are read-only.
+ * <p>
+ * In a B+ tree ({@link BTree#FLAG_BPLUS}) internal nodes hold separators without frequencies, and a leaf ends
+ * with the index of the next leaf plus one (0 for the last leaf) in place of the children.
+ */
+public class CompactNodeFormat {
+
+    /**
+     * size of a compact node on the disk
+     */
+    public static final int NODE_SIZE = 4096;
+    // leaf byte, n (up to 3 bytes) and the last child or the next leaf (up to 5 bytes) are kept free while keys are added
+    private static final int RESERVED = 1 + 3 + 5;
+
+    private final int nodeSize;
+    private final int metadataSize;
+    private final boolean bplus;
+
+    /**
+     * @param nodeSize     size of a node on the disk in bytes
+     * @param metadataSize size of the tree metadata before the first node
+     * @param bplus        true if the nodes belong to a B+ tree
+     */
+    CompactNodeFormat(int nodeSize, int metadataSize, boolean bplus) {
+        this.nodeSize = nodeSize;
+        this.metadataSize = metadataSize;
+        this.bplus = bplus;
+    }
+
+    /**
+     * @return the number of bytes of a node available for keys, frequencies and all children but the last
+     */
+    public int capacity() {
+        return nodeSize - RESERVED;
+    }
+
+    /**
+     * @param previousKey last key in the node, 0 for the first key of a node
+     * @param key         key to add
+     * @param frequency   frequency of the key
+     * @return the encoded size of the key and its frequency
+     */
+    public int keySize(long previousKey, long key, int frequency) {
+        return varintSize(key - previousKey) + varintSize(frequency);
+    }
+
+    /**
+     * @param previousKey last separator in the node, 0 for the first separator of a node
+     * @param key         separator to add to an internal node of a B+ tree
+     * @return the encoded size of the separator
+     */
+    public int separatorSize(long previousKey, long key) {
+        return varintSize(key - previousKey);
+    }
+
+    /**
+     * @param address address of a child node
+     * @return the encoded size of the child
+     */
+    public int childSize(long address) {
+        return varintSize(toIndex(address));
+    }
+
+    /**
+     * Encodes a node into a buffer, starting at the current position of the buffer, and pads it to the node size
+     *
+     * @param node   the node to be encoded, its keys must fit into a node
+     * @param buffer buffer with at least NODE_SIZE bytes remaining
+     */
+    void encode(BTreeNode node, ByteBuffer buffer) {
+        int start = buffer.position();
+        buffer.put((byte) (node.leaf ? 1 : 0));
+        putVarint(buffer, node.n);
+        long previous = 0;
+        for (int i = 0; i < node.n; i++) {
+            putVarint(buffer, node.keys[i] - previous);
+            if (node.leaf || !bplus) putVarint(buffer, node.frequencies[i]);
+            previous = node.keys[i];
+        }
+        if (!node.leaf) {
+            for (int i = 0; i <= node.n; i++) {
+                putVarint(buffer, toIndex(node.children[i]));
+            }
+        } else if (bplus) {
+            putVarint(buffer, node.next == 0 ? 0 : toIndex(node.next) + 1);
+        }
+        while (buffer.position() < start + nodeSize) buffer.put((byte) 0);
+    }
+
+    /**
+     * Decodes the keys, frequencies and children of a node, starting at the current position of the buffer
+     *
+     * @param buffer      buffer holding the encoded node
+     * @param keys        receives the keys
+     * @param frequencies receives the frequencies
+     * @param children    receives the addresses of the children, for a leaf the first one receives the address of
+     *                    the next leaf of a B+ tree (0 for the last leaf and in other trees)
+     * @return number of keys in the node
+     */
+    int decode(ByteBuffer buffer, long[] keys, int[] frequencies, long[] children) {
+        boolean leaf = buffer.get() == 1;
+        int n = (int) getVarint(buffer);
+        long key = 0;
+        for (int i = 0; i < n; i++) {
+            key += getVarint(buffer);
+            keys[i] = key;
+            frequencies[i] = leaf || !bplus ? (int) getVarint(buffer) : 0;
+        }
+        if (!leaf) {
+            for (int i = 0; i <= n; i++) {
+                children[i] = toAddress(getVarint(buffer));
+            }
+        } else if (bplus) {
+            long next = getVarint(buffer);
+            children[0] = next == 0 ? 0 : toAddress(next - 1);
+        } else {
+            children[0] = 0;
+        }
+        return n;
+    }
+
+    /**
+     * @param address address of a node
+     * @return index of the node
+     */
+    private long toIndex(long address) {
+        return (address - metadataSize) / nodeSize;
+    }
+
+    /**
+     * @param index index of a node
+     * @return address of the node
+     */
+    private long toAddress(long index) {
+        return metadataSize + index * nodeSize;
+    }
+
+    /**
+     * @param value non-negative number
+     * @return number of bytes of the number as a varint
+     */
+    static int varintSize(long value) {
+        int size = 1;
+        while ((value >>>= 7) != 0) size++;
+        return size;
+    }
+
+    /**
+     * Writes a number as a varint, 7 bits per byte starting with the lowest, the high bit marks that more follow
+     *
+     * @param buffer buffer to write to
+     * @param value  non-negative number
+     */
+    static void putVarint(ByteBuffer buffer, long value) {
+        while ((value & ~0x7FL) != 0) {
+            buffer.put((byte) ((value & 0x7F) | 0x80));
+            value >>>= 7;
+        }
+        buffer.put((byte) value);
+    }
+
+    /**
+     * @param buffer buffer to read from
+     * @return the varint at the position of the buffer
+     */
+    static long getVarint(ByteBuffer buffer) {
+        long value = 0;
+        int shift = 0;
+        byte b;
+        do {
+            b = buffer.get();
+            value |= (long) (b & 0x7F) << shift;
+            shift += 7;
+        } while (b < 0);
+        return value;
+    }
+}
@@ -1,8 +1,18 @@
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+
 /**
  * Utility class for converting DNA sequences between long and String
+ * Sequences of up to 31 bases fit in one (non-negative) long. Longer sequences, up to MAX_SEQUENCE_LENGTH bases,
+ * are split into two longs: the low word holds the last 32 bases, the high word the bases before them.
  */
 public class DNAConversion {
 
+    public static final int MAX_NARROW_LENGTH = 31; // longest sequence that fits in one long
+    public static final int MAX_SEQUENCE_LENGTH = 63;
+    private static final int LOW_WORD_LENGTH = Long.SIZE / 2; // bases in the low word of a long sequence
+
     private static final byte A = 0;
     private static final byte T = 3;
     private static final byte C = 1;
@@ -47,7 +57,7 @@ public class DNAConversion {
     public static String longToDna(long l, int sequenceLength) {
         char[] chars = new char[sequenceLength];
         for (int i = sequenceLength - 1; i >= 0; i--) {
-            switch ((byte) (l % 4)) {
+            switch ((byte) (l & 3)) {
                 case A:
                     chars[i] = 'a';
                     break;
@@ -60,8 +70,195 @@ public class DNAConversion {
                 case G:
                     chars[i] = 'g';
             }
-            l >>= 2;
+            l >>>= 2;
         }
         return String.valueOf(chars);
     }
+
+    /**
+     * Converts the bases of a sequence longer than 31 bases before its last 32 bases to a long
+     *
+     * @param sequence the sequence to convert
+     * @return the high word of the sequence, 0 for sequences of at most 32 bases
+     */
+    public static long dnaToHighLong(String sequence) {
+        int split = sequence.length() - LOW_WORD_LENGTH;
+        return split > 0 ? dnaToLong(sequence.substring(0, split)) : 0;
+    }
+
+    /**
+     * Converts the last 32 bases of a sequence longer than 31 bases to a long
+     *
+     * @param sequence the sequence to convert
+     * @return the low word of the sequence
+     */
+    public static long dnaToLowLong(String sequence) {
+        int split = sequence.length() - LOW_WORD_LENGTH;
+        return dnaToLong(split > 0 ? sequence.substring(split) : sequence);
+    }
+
+    /**
+     * Converts a sequence longer than 31 bases from its two longs to a String
+     *
+     * @param high           high word of the sequence
+     * @param low            low word of the sequence
+     * @param sequenceLength length of DNA sequence
+     * @return String representation of the sequence
+     */
+    public static String longsToDna(long high, long low, int sequenceLength) {
+        if (sequenceLength <= LOW_WORD_LENGTH) return longToDna(low, sequenceLength);
+        return longToDna(high, sequenceLength - LOW_WORD_LENGTH) + longToDna(low, LOW_WORD_LENGTH);
+    }
+
+    /**
+     * Computes the reverse complement of a sequence: the sequence of the opposite strand, read in the same
+     * direction. The complement of a base is its code xor 3 (a-t, c-g), so the whole sequence is complemented
+     * by inverting its bits, after which the order of the 2-bit bases is reversed.
+     *
+     * @param sequence       long representation of the DNA sequence
+     * @param sequenceLength length of the DNA sequence
+     * @return long representation of the reverse complement
+     */
+    public static long reverseComplement(long sequence, int sequenceLength) {
+        long reversed = Long.reverse(~sequence);
+        // Long.reverse also swaps the two bits of each base, swap them back
+        reversed = ((reversed >>> 1) & 0x5555555555555555L) | ((reversed & 0x5555555555555555L) << 1);
+        return reversed >>> (Long.SIZE - 2 * sequenceLength);
+    }
+
+    /**
+     * Returns the canonical form of a sequence, the smaller of the sequence and its reverse complement.
+     * A sequence and its reverse complement have the same canonical form, so counting canonical sequences
+     * counts both strands together.
+     *
+     * @param sequence       long representation of the DNA sequence
+     * @param sequenceLength length of the DNA sequence
+     * @return long representation of the canonical sequence
+     */
+    public static long canonical(long sequence, int sequenceLength) {
+        long reverse = reverseComplement(sequence, sequenceLength);
+        return Long.compareUnsigned(sequence, reverse) <= 0 ? sequence : reverse;
+    }
+
+    /**
+     * Encodes the DNA sequences (k-mers) of a stream of bases one base at a time.
+     * Every base shifts the sequence 2 bits to the left and is added in the lowest 2 bits, the bits of bases
+     * that left the window are masked off, so each sequence costs O(1) regardless of its length.
+     * An 'n' restarts the window: no sequence containing it is produced.
+     * The reverse complement is rolled along (shifted in from the left), so the canonical sequence is O(1) too.
+     * Sequences longer than 31 bases are rolled through two words, the base leaving the low word enters the high word.
+     */
+    public static class RollingEncoder {
+
+        private final int sequenceLength;
+        private final long mask;
+        private final long highMask;
+        private final int highShift; // position of the first base in the reverse complement
+        private long sequence;
+        private long highSequence;
+        private long reverse;
+        private int count;
+
+        /**
+         * @param sequenceLength length of the sequences to encode, 1 to MAX_SEQUENCE_LENGTH
+         */
+        public RollingEncoder(int sequenceLength) {
+            this.sequenceLength = sequenceLength;
+            int lowLength = Math.min(sequenceLength, LOW_WORD_LENGTH);
+            int highLength = sequenceLength - lowLength;
+            mask = -1L >>> (Long.SIZE - 2 * lowLength);
+            highMask = highLength == 0 ? 0 : -1L >>> (Long.SIZE - 2 * highLength);
+            highShift = 2 * (lowLength - 1);
+            reset();
+        }
+
+        /**
+         * Adds the next base to the window
+         *
+         * @param base the base as a lower case letter, other letters than a, c, g, t and n are encoded like a
+         * @return true if the window holds a complete sequence, see {@link #getSequence()}
+         */
+        public boolean add(int base) {
+            long code;
+            switch (base) {
+                case 'n':
+                    reset();
+                    return false;
+                case 'c':
+                    code = C;
+                    break;
+                case 'g':
+                    code = G;
+                    break;
+                case 't':
+                    code = T;
+                    break;
+                default:
+                    code = A;
+            }
+            highSequence = ((highSequence << 2) | (sequence >>> (Long.SIZE - 2))) & highMask;
+            sequence = ((sequence << 2) | code) & mask;
+            reverse = (reverse >>> 2) | ((code ^ 3) << highShift);
+            if (count < sequenceLength) count++;
+            return count == sequenceLength;
+        }
+
+        /**
+         * Empties the window, e.g. at the start of a new sequence
+         */
+        public void reset() {
+            sequence = 0;
+            highSequence = 0;
+            reverse = 0;
+            count = 0;
+        }
+
+        /**
+         * Writes the content of the window, so encoding can be continued later with {@link #readState(DataInput)}
+         *
+         * @param out output to write the state to
+         */
+        public void writeState(DataOutput out) throws IOException {
+            out.writeLong(sequence);
+            out.writeLong(highSequence);
+            out.writeLong(reverse);
+            out.writeInt(count);
+        }
+
+        /**
+         * Restores the content of the window written by writeState
+         *
+         * @param in input to read the state from
+         */
+        public void readState(DataInput in) throws IOException {
+            sequence = in.readLong();
+            highSequence = in.readLong();
+            reverse = in.readLong();
+            count = in.readInt();
+        }
+
+        /**
+         * @return the long representation of the last sequenceLength bases,
+         * the low word (last 32 bases) of sequences longer than 31 bases
+         */
+        public long getSequence() {
+            return sequence;
+        }
+
+        /**
+         * @return the high word of sequences longer than 31 bases, 0 for shorter sequences
+         */
+        public long getHighSequence() {
+            return highSequence;
+        }
+
+        /**
+         * @return the long representation of the canonical form of the last sequenceLength bases,
+         * only for sequences of at most 32 bases
+         * @see DNAConversion#canonical(long, int)
+         */
+        public long getCanonicalSequence() {
+            return Long.compareUnsigned(sequence, reverse) <= 0 ? sequence : reverse;
+        }
+    }
 }
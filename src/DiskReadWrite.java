@@ -1,20 +1,45 @@
 import java.io.*;
 import java.nio.ByteBuffer;
 import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.List;
 
 /**
  * Contains methods for reading and writing BTree data to/from a file on the disk.
  * This class is also responsible for creating a dump file if requested.
+ * <p>
+ * All file access is positional and never uses the position of the channel. Nodes are read into buffers
+ * owned by the calling thread (or the view being filled), so any number of threads can read nodes at the
+ * same time. Writing is meant to be done by a single thread.
  */
 @SuppressWarnings("ResultOfMethodCallIgnored")
 public class DiskReadWrite {
 
-    private final int METADATA_SIZE;
-    private final FileChannel file;
-    private int NODE_SIZE;
-    private ByteBuffer buffer;
-    private long endAddress;
+    protected final int METADATA_SIZE;
+    protected final FileChannel file;
+    protected int NODE_SIZE;
+    private ByteBuffer buffer; // used for writing
+    private final ThreadLocal<ByteBuffer> readBuffers = ThreadLocal.withInitial(() -> ByteBuffer.allocateDirect(NODE_SIZE));
+    protected long endAddress;
     private int degree;
+    private int flags;
+    private boolean wide; // keys have a high word, see BTree.FLAG_WIDE_KEYS
+    private int keySize; // size of a key and its frequency on the disk
+    private CompactNodeFormat compact; // null unless nodes use the compact format, see BTree.FLAG_COMPACT
+    private int pageSize; // 0 unless the header and nodes are aligned to pages, see BTree.FLAG_ALIGNED
+    private boolean bplus; // keys are only stored in the leaves, see BTree.FLAG_BPLUS
+    // undo journal, holds the previous content of nodes overwritten since startJournal
+    private FileChannel journal;
+    private long journalEnd;
+    private long journalLimit; // end of the file when the journal was started
+    private final BitSet journaled = new BitSet(); // nodes saved since startJournal, by node index
+    // the stored degree is small, its high bits hold the flags of the tree
+    private static final int DEGREE_MASK = 0xFFFFFF;
+    public static final int DEFAULT_PAGE_SIZE = 4096; // used to choose the degree of an unaligned file
+    public static final int MIN_PAGE_SIZE = 4096;
+    public static final int MAX_PAGE_SIZE = 64 * 1024;
     private int sequenceLength;
 
     /**
@@ -37,25 +62,122 @@ public class DiskReadWrite {
      * Writes the metadata to the disk.
      * Bytes|     8     |    4     |
      *      |rootAddress|treeDegree|
+     * The upper 8 bits of treeDegree hold flags, see {@link #setFlags(int)}.
+     * A page aligned file (BTree.FLAG_ALIGNED) continues with the page size (4 bytes), the header is padded
+     * to one page and every node starts on a page boundary.
      *
      * @param rootAddress address of root node
-     * @param degree      tree degree
+     * @param degree      order of the tree, m = 2t
      */
     public void writeMetadata(long rootAddress, int degree) throws IOException {
-        NODE_SIZE = BTreeNode.getDiskSize(degree);
+        writeMetadata(rootAddress, degree, 0);
+    }
+
+    /**
+     * Writes the metadata to the disk, including flags which determine the layout of the nodes
+     *
+     * @param rootAddress address of root node
+     * @param degree      order of the tree, m = 2t
+     * @param flags       flags of the tree, e.g. BTree.FLAG_WIDE_KEYS or BTree.FLAG_COMPACT
+     */
+    public void writeMetadata(long rootAddress, int degree, int flags) throws IOException {
+        writeMetadata(rootAddress, degree, flags, 0);
+    }
+
+    /**
+     * Writes the metadata to the disk, including flags and the page size which determine the layout of the nodes
+     *
+     * @param rootAddress address of root node
+     * @param degree      order of the tree, m = 2t
+     * @param flags       flags of the tree, e.g. BTree.FLAG_WIDE_KEYS or BTree.FLAG_COMPACT
+     * @param pageSize    size of a page the header and nodes are aligned to, 0 for no alignment
+     */
+    public void writeMetadata(long rootAddress, int degree, int flags, int pageSize) throws IOException {
+        if (pageSize > 0) flags |= BTree.FLAG_ALIGNED;
+        setLayout(degree, flags, pageSize);
         buffer = ByteBuffer.allocateDirect(NODE_SIZE);
-        file.position(endAddress);
 
-        ByteBuffer tmpBuffer = ByteBuffer.allocateDirect(METADATA_SIZE);
+        ByteBuffer tmpBuffer = ByteBuffer.allocateDirect(getHeaderSize());
 
         tmpBuffer.clear();
         tmpBuffer.putLong(rootAddress);
-        tmpBuffer.putInt(degree);
+        tmpBuffer.putInt(degree | flags);
+        if (pageSize > 0) tmpBuffer.putInt(pageSize);
 
+        // the rest of an aligned header is zero
+        tmpBuffer.position(tmpBuffer.capacity());
         tmpBuffer.flip();
-        file.write(tmpBuffer);
-        endAddress += METADATA_SIZE;
+        write(tmpBuffer, endAddress);
+        endAddress += getHeaderSize();
+    }
+
+    /**
+     * Sets the degree, flags and page size of the tree and the node size that follows from them.
+     * Nodes of an aligned file take the whole number of pages that holds BTreeNode.getDiskSize(t) bytes.
+     * Nodes of an unaligned file are spaced BTreeNode.getDiskSize(2t) bytes apart, about twice the size of a node:
+     * the original file format sized nodes from the stored order m = 2t as if it were t, and existing files
+     * are only readable with that spacing.
+     *
+     * @param degree   order of the tree as stored in the file, m = 2t
+     * @param flags    flags of the tree
+     * @param pageSize page size of an aligned file, 0 otherwise
+     */
+    private void setLayout(int degree, int flags, int pageSize) {
         this.degree = degree;
+        this.flags = flags;
+        this.pageSize = pageSize;
+        wide = (flags & BTree.FLAG_WIDE_KEYS) != 0;
+        bplus = (flags & BTree.FLAG_BPLUS) != 0;
+        keySize = wide ? TreeObject.WIDE_DISK_SIZE : TreeObject.DISK_SIZE;
+        if ((flags & BTree.FLAG_COMPACT) != 0) {
+            NODE_SIZE = pageSize > 0 ? pageSize : CompactNodeFormat.NODE_SIZE;
+            compact = new CompactNodeFormat(NODE_SIZE, getHeaderSize(), bplus);
+        } else if (pageSize > 0) {
+            int pages = (BTreeNode.getDiskSize(degree / 2, keySize) + pageSize - 1) / pageSize;
+            NODE_SIZE = pages * pageSize;
+            compact = null;
+        } else {
+            NODE_SIZE = BTreeNode.getDiskSize(degree, keySize);
+            compact = null;
+        }
+    }
+
+    /**
+     * @param pageSize page size given for an aligned file
+     * @return true if the page size is a power of two from MIN_PAGE_SIZE (4K) to MAX_PAGE_SIZE (64K)
+     */
+    public static boolean isValidPageSize(int pageSize) {
+        return pageSize >= MIN_PAGE_SIZE && pageSize <= MAX_PAGE_SIZE && Integer.bitCount(pageSize) == 1;
+    }
+
+    /**
+     * Chooses the degree of a new tree when the user gives a degree of 0, one node per page
+     *
+     * @param pageSize page size of an aligned file, 0 for an unaligned file
+     * @param keySize  size of a key and its frequency on the disk, TreeObject.DISK_SIZE or TreeObject.WIDE_DISK_SIZE
+     * @param compact  true if the nodes use the CompactNodeFormat
+     * @return the largest degree whose nodes fit into one page
+     */
+    public static int getOptimalDegree(int pageSize, int keySize, boolean compact) {
+        if (compact) {
+            // a compact node holds at most one key per two bytes, the degree then never limits a node
+            return (pageSize > 0 ? pageSize : CompactNodeFormat.NODE_SIZE) / 4;
+        }
+        return BTreeNode.getDegree(pageSize > 0 ? pageSize : DEFAULT_PAGE_SIZE, keySize);
+    }
+
+    /**
+     * @return the size of the header before the first node, one page for an aligned file
+     */
+    public int getHeaderSize() {
+        return pageSize > 0 ? pageSize : METADATA_SIZE;
+    }
+
+    /**
+     * @return the page size the file is aligned to, 0 if it is not aligned
+     */
+    public int getPageSize() {
+        return pageSize;
     }
 
     /**
@@ -64,10 +186,9 @@ public class DiskReadWrite {
      * @return address of the root object
      */
     public long getRootAddress() throws IOException {
-        file.position(0);
         ByteBuffer tmpBuffer = ByteBuffer.allocateDirect(Long.BYTES);
         tmpBuffer.clear();
-        file.read(tmpBuffer);
+        read(tmpBuffer, 0);
         tmpBuffer.flip();
         return tmpBuffer.getLong();
     }
@@ -78,27 +199,79 @@ public class DiskReadWrite {
      * @return the degree of the BTree
      */
     public int getDegree() throws IOException {
-        file.position(Long.BYTES);
         ByteBuffer tmpBuffer = ByteBuffer.allocateDirect(Integer.BYTES);
         tmpBuffer.clear();
-        file.read(tmpBuffer);
+        read(tmpBuffer, Long.BYTES);
         tmpBuffer.flip();
-        degree = tmpBuffer.getInt();
-        NODE_SIZE = BTreeNode.getDiskSize(degree);
+        int stored = tmpBuffer.getInt();
+        int pageSize = 0;
+        if ((stored & BTree.FLAG_ALIGNED) != 0) {
+            tmpBuffer.clear();
+            read(tmpBuffer, METADATA_SIZE);
+            tmpBuffer.flip();
+            pageSize = tmpBuffer.getInt();
+        }
+        setLayout(stored & DEGREE_MASK, stored & ~DEGREE_MASK, pageSize);
         buffer = ByteBuffer.allocateDirect(NODE_SIZE);
         return degree;
     }
 
+    /**
+     * @return the flags of the tree, read by getDegree or set by setFlags
+     */
+    public int getFlags() {
+        return flags;
+    }
+
+    /**
+     * @return the compact node format of the tree, null if nodes use the fixed format
+     */
+    public CompactNodeFormat getCompactFormat() {
+        return compact;
+    }
+
+    /**
+     * Stores flags describing the content of the tree in the metadata on the disk.
+     * Flags use the bits above the lower 24 bits of an int. Flags that determine the layout of the nodes
+     * (BTree.FLAG_WIDE_KEYS, BTree.FLAG_COMPACT, BTree.FLAG_ALIGNED, BTree.FLAG_BPLUS) are fixed by writeMetadata
+     * and are not changed.
+     *
+     * @param flags flags of the tree
+     */
+    public void setFlags(int flags) throws IOException {
+        int layout = BTree.FLAG_WIDE_KEYS | BTree.FLAG_COMPACT | BTree.FLAG_ALIGNED | BTree.FLAG_BPLUS;
+        this.flags = (flags & ~layout) | (this.flags & layout);
+        ByteBuffer tmpBuffer = ByteBuffer.allocateDirect(Integer.BYTES);
+        tmpBuffer.putInt(degree | this.flags);
+        tmpBuffer.flip();
+        write(tmpBuffer, Long.BYTES);
+    }
+
     /**
      * Writes a node to the disk at the given address
      *
      * @param node    the node to be written on the disk
      * @param address address to write node to
      */
-    private void writeNode(BTreeNode node, long address) throws IOException {
-        file.position(address);
-
+    protected void writeNode(BTreeNode node, long address) throws IOException {
         buffer.clear();
+        encodeNode(node, buffer);
+
+        buffer.flip();
+        write(buffer, address);
+    }
+
+    /**
+     * Encodes a node into a buffer, starting at the current position of the buffer
+     *
+     * @param node   the node to be encoded
+     * @param buffer buffer with at least NODE_SIZE bytes remaining
+     */
+    protected void encodeNode(BTreeNode node, ByteBuffer buffer) {
+        if (compact != null) {
+            compact.encode(node, buffer);
+            return;
+        }
         buffer.putInt(node.n);
 
         // node metadata
@@ -109,9 +282,11 @@ public class DiskReadWrite {
         //keys
         for (int i = 0; i < degree - 1; i++) {
             if (i < node.n) {
-                buffer.putLong(node.keys[i].substring);
-                buffer.putInt(node.keys[i].frequency);
+                if (wide) buffer.putLong(node.highKeys[i]);
+                buffer.putLong(node.keys[i]);
+                buffer.putInt(node.frequencies[i]);
             } else {
+                if (wide) buffer.putLong(0);
                 buffer.putLong(0);
                 buffer.putInt(0);
             }
@@ -119,15 +294,15 @@ public class DiskReadWrite {
 
         //children
         for (int i = 0; i < degree; i++) {
-            if (i < node.n + 1) {
+            if (node.leaf && i == 0) {
+                // a leaf has no children, the first slot links the leaves of a B+ tree
+                buffer.putLong(node.next);
+            } else if (i < node.n + 1) {
                 buffer.putLong(node.children[i]);
             } else {
                 buffer.putLong(0);
             }
         }
-
-        buffer.flip();
-        file.write(buffer);
     }
 
     /**
@@ -141,43 +316,239 @@ public class DiskReadWrite {
         endAddress += NODE_SIZE;
     }
 
+    /**
+     * Reserves space for a node at the end of the file without writing it.
+     * The node must be written later with updateNode.
+     *
+     * @param node node to assign an address to
+     */
+    public void allocateNode(BTreeNode node) {
+        node.address = endAddress;
+        endAddress += NODE_SIZE;
+    }
+
     /**
      * Updates a node on the disk. (Writes the node to its previous location)
      *
      * @param node node to be updated on disk
      */
     public void updateNode(BTreeNode node) throws IOException {
+        saveToJournal(node.address);
         writeNode(node, node.address);
     }
 
     /**
+     * Sets the end of the file of a tree loaded from the disk, so new nodes are appended after the existing ones.
+     * The last node of a file may be shorter than NODE_SIZE, so the size of the file is rounded up to the next
+     * node boundary. Call getDegree first, and before any node is read: a writable mapping extends the file.
+     */
+    public void recoverEndAddress() throws IOException {
+        long nodes = (Math.max(file.size() - getHeaderSize(), 0) + NODE_SIZE - 1) / NODE_SIZE;
+        endAddress = getHeaderSize() + nodes * NODE_SIZE;
+    }
+
+    /**
+     * @return address of the end of the file, where the next node will be written
+     */
+    public long getEndAddress() {
+        return endAddress;
+    }
+
+    /**
+     * Starts a new undo journal, replacing the previous one.
+     * Before a node that exists now is overwritten for the first time, its current bytes are appended to the
+     * journal, so {@link #rollBack} can return the file to its state at this point. Nodes appended later need
+     * no journal entry, rolling back cuts them off.
+     * Journal entries are written before the node, which protects against the process dying; call force
+     * before starting a journal to also protect the state at this point against a crash of the machine.
+     * Bytes|    8     | 8 + NODE_SIZE |...
+     *      |generation|address, node  |...
+     *
+     * @param journalFile file of the journal, emptied
+     * @param generation  number identifying the state the journal returns to
+     */
+    public void startJournal(File journalFile, long generation) throws IOException {
+        if (journal == null) {
+            journal = FileChannel.open(journalFile.toPath(), StandardOpenOption.CREATE, StandardOpenOption.READ,
+                    StandardOpenOption.WRITE);
+        }
+        journal.truncate(0);
+        ByteBuffer tmpBuffer = ByteBuffer.allocate(Long.BYTES);
+        tmpBuffer.putLong(generation);
+        tmpBuffer.flip();
+        journalEnd = 0;
+        while (tmpBuffer.hasRemaining()) journalEnd += journal.write(tmpBuffer, journalEnd);
+        journal.force(true);
+        journalLimit = endAddress;
+        journaled.clear();
+    }
+
+    /**
+     * Appends the current content of a node to the journal if the node existed when the journal was started
+     * and has not been saved since
+     *
+     * @param address address of a node that is about to be overwritten
+     */
+    private void saveToJournal(long address) throws IOException {
+        if (journal == null || address >= journalLimit) return;
+        int index = (int) ((address - getHeaderSize()) / NODE_SIZE);
+        if (journaled.get(index)) return;
+        journaled.set(index);
+        ByteBuffer entry = ByteBuffer.allocate(Long.BYTES + NODE_SIZE);
+        entry.putLong(address);
+        read(entry, address);
+        // the last node of the file may be shorter than NODE_SIZE, entries always have the full size
+        entry.position(entry.capacity());
+        entry.flip();
+        while (entry.hasRemaining()) journalEnd += journal.write(entry, journalEnd);
+    }
+
+    /**
+     * Returns the file to a state saved with startJournal: writes back the nodes saved in the journal,
+     * restores the root address and cuts off everything appended since. A journal of another generation
+     * belongs to an earlier state and is ignored; the file was not changed since the state was saved.
+     *
+     * @param journalFile journal started when the state was saved, may not exist
+     * @param generation  generation the journal was started with
+     * @param rootAddress address of the root node in that state
+     * @param endAddress  end of the file in that state
+     */
+    public void rollBack(File journalFile, long generation, long rootAddress, long endAddress) throws IOException {
+        if (journalFile.exists()) {
+            try (FileChannel undo = FileChannel.open(journalFile.toPath(), StandardOpenOption.READ)) {
+                ByteBuffer entry = ByteBuffer.allocate(Long.BYTES + NODE_SIZE);
+                long position = readFully(undo, entry.limit(Long.BYTES), 0);
+                entry.flip();
+                if (entry.remaining() == Long.BYTES && entry.getLong() == generation) {
+                    while (true) {
+                        entry.clear();
+                        position = readFully(undo, entry, position);
+                        // an incomplete entry was being written when the process died, its node was not
+                        if (entry.position() < entry.capacity()) break;
+                        entry.flip();
+                        long address = entry.getLong();
+                        write(entry, address);
+                    }
+                }
+            }
+        }
+        file.truncate(endAddress);
+        this.endAddress = endAddress;
+        setRoot(rootAddress);
+        force();
+    }
+
+    /**
+     * Reads from a channel at the given position until the buffer is full or the end is reached
+     *
+     * @param channel  channel to read from
+     * @param target   buffer to read into
+     * @param position position of the first byte to read
+     * @return position after the last byte read
+     */
+    private static long readFully(FileChannel channel, ByteBuffer target, long position) throws IOException {
+        while (target.hasRemaining()) {
+            int read = channel.read(target, position);
+            if (read < 0) break;
+            position += read;
+        }
+        return position;
+    }
+
+    /**
+     * Forces all changes to the storage device
+     */
+    public void force() throws IOException {
+        file.force(true);
+    }
+
+    /**
+     * Reads a node using a buffer of the calling thread, may be called by several threads at once
+     *
      * @param address address of node to be retrieved
      * @return the node at the specified address
      */
     public BTreeNode readNode(long address) throws IOException {
         if (address == 0) return null;
 
-        file.position(address);
-        buffer.clear();
+        ByteBuffer readBuffer = readBuffers.get();
+        readBuffer.clear();
 
-        file.read(buffer);
-        buffer.flip();
+        read(readBuffer, address);
+        readBuffer.flip();
+
+        return decodeNode(readBuffer, address);
+    }
+
+    /**
+     * Reads bytes from the file at the given address until the buffer is full or the end of the file is reached.
+     * Does not use or change the position of the file channel.
+     *
+     * @param target  buffer to read into, starting at its position
+     * @param address address of the first byte to read
+     */
+    protected void read(ByteBuffer target, long address) throws IOException {
+        long position = address;
+        while (target.hasRemaining()) {
+            int read = file.read(target, position);
+            if (read < 0) break;
+            position += read;
+        }
+    }
+
+    /**
+     * Writes the remaining bytes of a buffer to the file at the given address.
+     * Does not use or change the position of the file channel.
+     *
+     * @param source  buffer to write, from its position to its limit
+     * @param address address of the first byte to write
+     */
+    protected void write(ByteBuffer source, long address) throws IOException {
+        long position = address;
+        while (source.hasRemaining()) {
+            position += file.write(source, position);
+        }
+    }
 
+    /**
+     * Decodes a node from a buffer, starting at the current position of the buffer
+     *
+     * @param buffer  buffer holding the encoded node
+     * @param address address of the node
+     * @return the decoded node
+     */
+    protected BTreeNode decodeNode(ByteBuffer buffer, long address) {
+        if (compact != null) {
+            BTreeNode node = new BTreeNode(degree / 2, buffer.get(buffer.position()) == 1);
+            node.address = address;
+            node.n = compact.decode(buffer, node.keys, node.frequencies, node.children);
+            if (node.leaf) {
+                node.next = node.children[0];
+                node.children[0] = 0;
+            }
+            return node;
+        }
         int n = buffer.getInt();
         byte leaf = buffer.get();
 
-        BTreeNode node = new BTreeNode(degree / 2, leaf == 1);
+        BTreeNode node = new BTreeNode(degree / 2, leaf == 1, wide);
         node.address = address;
         node.n = n;
 
         int i = 0;
         for (; i < n; i++) {
-            node.keys[i] = new TreeObject(buffer.getLong(), buffer.getInt());
+            if (wide) node.highKeys[i] = buffer.getLong();
+            node.keys[i] = buffer.getLong();
+            node.frequencies[i] = buffer.getInt();
         }
-        buffer.position(buffer.position() + (degree - 1 - i) * TreeObject.DISK_SIZE);
+        buffer.position(buffer.position() + (degree - 1 - i) * keySize);
 
-        for (int j = 0; j <= n; j++) {
-            node.children[j] = buffer.getLong();
+        if (node.leaf) {
+            node.next = buffer.getLong();
+        } else {
+            for (int j = 0; j <= n; j++) {
+                node.children[j] = buffer.getLong();
+            }
         }
 
         return node;
@@ -189,33 +560,85 @@ public class DiskReadWrite {
      * @param rootAddress address of new root
      */
     public void setRoot(Long rootAddress) throws IOException {
-        file.position(0);
         ByteBuffer tmpBuffer = ByteBuffer.allocateDirect(Long.BYTES);
 
         tmpBuffer.clear();
         tmpBuffer.putLong(rootAddress);
 
         tmpBuffer.flip();
-        file.write(tmpBuffer);
+        write(tmpBuffer, 0);
+    }
+
+    /**
+     * Forces all changes to the storage device and closes the file
+     */
+    public void close() throws IOException {
+        file.force(true);
+        file.close();
+        if (journal != null) journal.close();
+    }
+
+    /**
+     * @return a new view that nodes of this file can be read into
+     */
+    public BTreeNodeView newView() {
+        return new BTreeNodeView(degree, NODE_SIZE, wide, compact);
+    }
+
+    /**
+     * Reads a node into a view without decoding it.
+     * Threads reading at the same time must use their own views.
+     *
+     * @param address address of node to be retrieved, must not be 0
+     * @param view    view to point at the node
+     */
+    public void readView(long address, BTreeNodeView view) throws IOException {
+        ByteBuffer viewBuffer = view.buffer();
+        viewBuffer.clear();
+        read(viewBuffer, address);
+        view.wrap(viewBuffer, 0, address);
     }
 
     /**
      * Recursively writes each BTreeNode to the dump file using in-order traversal
      *
-     * @param bw   BufferedWriter used to write to the file
-     * @param node root node
+     * @param bw      BufferedWriter used to write to the file
+     * @param address address of the root node of the subtree
+     * @param views   one reusable view per level of the tree
+     * @param depth   level of the node
      */
-    private void inOrderDump(BufferedWriter bw, BTreeNode node) throws IOException {
-        if (node.leaf) {
-            for (int i = 0; i < node.n; i++) {
-                bw.write(DNAConversion.longToDna(node.keys[i].substring, sequenceLength) + ": " + node.keys[i].frequency + "\n");
-            }
-        } else {
-            for (int i = 0; i < node.n; i++) {
-                inOrderDump(bw, readNode(node.children[i]));
-                bw.write(DNAConversion.longToDna(node.keys[i].substring, sequenceLength) + ": " + node.keys[i].frequency + "\n");
+    private void inOrderDump(BufferedWriter bw, long address, List<BTreeNodeView> views, int depth) throws IOException {
+        if (views.size() == depth) views.add(newView());
+        BTreeNodeView node = views.get(depth);
+        readView(address, node);
+        int n = node.getN();
+        boolean leaf = node.isLeaf();
+        for (int i = 0; i < n; i++) {
+            if (!leaf) inOrderDump(bw, node.getChild(i), views, depth + 1);
+            String sequence = wide ? DNAConversion.longsToDna(node.getHighKey(i), node.getKey(i), sequenceLength)
+                    : DNAConversion.longToDna(node.getKey(i), sequenceLength);
+            bw.write(sequence + ": " + node.getFrequency(i) + "\n");
+        }
+        if (!leaf) inOrderDump(bw, node.getChild(n), views, depth + 1);
+    }
+
+    /**
+     * Writes the keys of a B+ tree to the dump file, walking from the first leaf along the links between the leaves
+     *
+     * @param bw          BufferedWriter used to write to the file
+     * @param rootAddress address of the root node
+     */
+    private void leafDump(BufferedWriter bw, long rootAddress) throws IOException {
+        BTreeNodeView node = newView();
+        readView(rootAddress, node);
+        while (!node.isLeaf()) readView(node.getChild(0), node);
+        while (true) {
+            for (int i = 0; i < node.getN(); i++) {
+                bw.write(DNAConversion.longToDna(node.getKey(i), sequenceLength) + ": " + node.getFrequency(i) + "\n");
             }
-            inOrderDump(bw, readNode(node.children[node.n]));
+            long next = node.getNext();
+            if (next == 0) return;
+            readView(next, node);
         }
     }
 
@@ -228,7 +651,12 @@ public class DiskReadWrite {
     public void dump(String filename, int sequenceLength) {
         this.sequenceLength = sequenceLength;
         try (BufferedWriter bw = new BufferedWriter(new FileWriter(filename))) {
-            inOrderDump(bw, readNode(getRootAddress()));
+            long rootAddress = getRootAddress();
+            if (rootAddress != 0 && bplus) {
+                leafDump(bw, rootAddress);
+            } else if (rootAddress != 0) {
+                inOrderDump(bw, rootAddress, new ArrayList<>(), 0);
+            }
         } catch (IOException e) {
             e.printStackTrace();
         }
@@ -1,16 +1,49 @@
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
 import java.io.File;
+import java.io.FileInputStream;
 import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
 import java.io.IOException;
-import java.util.Scanner;
+import java.io.InterruptedIOException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 /**
  * Driver class for creating a BTree and inserting data from a GeneBank file containing a DNA sequence
  */
 public class GeneBankCreateBTree {
 
+    private static final int DEFAULT_AGGREGATION_BUDGET = 64; // megabytes
+    private static final int RUN_BUFFER_SIZE = 64 * 1024; // bytes buffered per run file
     private final int SEQUENCE_LENGTH;
     private final File sourceFile;
     private final BTree bTree;
+    private boolean bulkLoad;
+    private boolean canonical;
+    private int sortThreads = 1; // threads sorting the counted sequences of a bulk load
+    private LongIntHashMap aggregated;
+    private final String fileName;
+    private final List<File> runFiles = new ArrayList<>(); // sorted counts spilled by bulk loading
+    private final File checkpointFile;
+    private final File journalFile;
+    private final boolean resuming;
+    private final boolean updating; // sequences are added to an existing BTree file
+    private long checkpointInterval; // sequences between checkpoints, 0 for no checkpoints
+    private long generation; // number of the last checkpoint
 
     /**
      * Constructor, creates a BTree without a cache
@@ -21,9 +54,7 @@ public class GeneBankCreateBTree {
      *                       input of 0 uses optimal degree based on a disk block size of 4096 bytes
      */
     public GeneBankCreateBTree(File sourceFile, int sequenceLength, int degree) throws IOException {
-        this.sourceFile = sourceFile;
-        SEQUENCE_LENGTH = sequenceLength;
-        bTree = new BTree(degree, sourceFile.getName() + ".btree.data." + SEQUENCE_LENGTH + "." + degree, BTree.MODE_WRITE);
+        this(sourceFile, sequenceLength, degree, null, BTree.MODE_WRITE);
     }
 
     /**
@@ -36,19 +67,106 @@ public class GeneBankCreateBTree {
      * @param cacheSize      number of objects that can be stored in cache
      */
     public GeneBankCreateBTree(File sourceFile, int sequenceLength, int degree, int cacheSize) throws IOException {
+        this(sourceFile, sequenceLength, degree, new LRUCache<>(cacheSize), BTree.MODE_WRITE);
+    }
+
+    /**
+     * Overloaded constructor, creates a BTree with the given cache and file access mode
+     *
+     * @param sourceFile     gbk file containing the DNA sequence
+     * @param sequenceLength length of DNA sequences to store in BTree
+     * @param degree         degree of BTree, i.e. minimum number of child nodes
+     *                       input of 0 uses optimal degree based on a disk block size of 4096 bytes
+     * @param cache          cache used by the BTree, null for no cache
+     * @param mode           BTree.MODE_WRITE, optionally combined with BTree.MODE_MAPPED,
+     *                       BTree.MODE_WIDE is added for sequences longer than 31 bases
+     */
+    public GeneBankCreateBTree(File sourceFile, int sequenceLength, int degree, Cache<BTreeNode> cache, int mode) throws IOException {
+        this(sourceFile, sequenceLength, degree, cache, mode, 0);
+    }
+
+    /**
+     * Overloaded constructor, creates a BTree with the given cache and file access mode whose file is
+     * aligned to pages of the given size
+     *
+     * @param sourceFile     gbk file containing the DNA sequence
+     * @param sequenceLength length of DNA sequences to store in BTree
+     * @param degree         degree of BTree, i.e. minimum number of child nodes
+     * @param cache          cache used by the BTree, null for no cache
+     * @param mode           BTree.MODE_WRITE, optionally combined with BTree.MODE_MAPPED, BTree.MODE_COMPACT or
+     *                       BTree.MODE_BPLUS,
+     *                       or BTree.MODE_RESUME to continue the BTree file of an earlier run from its checkpoint
+     * @param pageSize       page size of the file, 0 for the unaligned layout
+     */
+    public GeneBankCreateBTree(File sourceFile, int sequenceLength, int degree, Cache<BTreeNode> cache, int mode,
+                               int pageSize) throws IOException {
+        this(sourceFile, sequenceLength, BTree.getFileName(sourceFile.getName(), sequenceLength, degree), degree,
+                cache, mode, pageSize);
+    }
+
+    /**
+     * Overloaded constructor, opens an existing BTree file to add the sequences of another gbk file to it.
+     * Frequencies of sequences already in the BTree are increased, new sequences are inserted, so the cost
+     * depends only on the size of the new gbk file.
+     *
+     * @param sourceFile     gbk file containing the DNA sequence to add
+     * @param sequenceLength length of DNA sequences stored in the BTree
+     * @param treeFile       existing BTree file
+     * @param cache          cache used by the BTree, null for no cache
+     * @param mode           BTree.MODE_UPDATE, optionally combined with BTree.MODE_MAPPED,
+     *                       or BTree.MODE_RESUME to continue an earlier run on the file from its checkpoint
+     */
+    public GeneBankCreateBTree(File sourceFile, int sequenceLength, File treeFile, Cache<BTreeNode> cache, int mode)
+            throws IOException {
+        this(sourceFile, sequenceLength, treeFile.getPath(), 0, cache, mode, 0);
+        boolean wideKeys = (bTree.getFlags() & BTree.FLAG_WIDE_KEYS) != 0;
+        if (wideKeys != sequenceLength > DNAConversion.MAX_NARROW_LENGTH) {
+            bTree.close();
+            throw new IllegalArgumentException("Error: The sequence length does not match the BTree file");
+        }
+    }
+
+    /**
+     * Creates or opens the BTree file
+     *
+     * @param sourceFile     gbk file containing the DNA sequence
+     * @param sequenceLength length of DNA sequences to store in BTree
+     * @param fileName       name of the BTree file
+     * @param degree         degree of a new BTree
+     * @param cache          cache used by the BTree, null for no cache
+     * @param mode           file access mode of the BTree
+     * @param pageSize       page size of a new file, 0 for the unaligned layout
+     */
+    private GeneBankCreateBTree(File sourceFile, int sequenceLength, String fileName, int degree,
+                                Cache<BTreeNode> cache, int mode, int pageSize) throws IOException {
         this.sourceFile = sourceFile;
+        this.fileName = fileName;
         SEQUENCE_LENGTH = sequenceLength;
-        bTree = new BTree(degree, sourceFile.getName() + ".btree.data." + SEQUENCE_LENGTH + "." + degree, cacheSize, BTree.MODE_WRITE);
+        if (sequenceLength > DNAConversion.MAX_NARROW_LENGTH) mode |= BTree.MODE_WIDE;
+        checkpointFile = new File(fileName + ".checkpoint");
+        journalFile = new File(fileName + ".journal");
+        int fileMode = mode & ~(BTree.MODE_MAPPED | BTree.MODE_WIDE | BTree.MODE_COMPACT | BTree.MODE_BPLUS);
+        resuming = fileMode == BTree.MODE_RESUME;
+        updating = fileMode == BTree.MODE_UPDATE;
+        if (resuming && !(checkpointFile.exists() && new File(fileName).exists())) {
+            throw new FileNotFoundException("No checkpoint to resume from: " + checkpointFile.getAbsolutePath());
+        }
+        if (updating && !new File(fileName).exists()) {
+            throw new FileNotFoundException("Unable to locate file at: " + new File(fileName).getAbsolutePath());
+        }
+        bTree = new BTree(degree, fileName, cache, mode, pageSize);
     }
 
     /**
      * main method
      * loads command line args, creates a BTree from the specified gbk file
      *
-     * @param args <0/1(no/with Cache)> <degree> <gbk file> <sequence length> [<cache size>] [<debug level>]
+     * @param args <0/1(no/with Cache)> <degree> <gbk file> <sequence length> [<cache size>] [<debug level>] [--bulk] [--sort-threads=<N>] [--aggregate=<MB>] [--write-back] [--cache-policy=<policy>] [--mmap] [--canonical] [--compact] [--bplus] [--page-size=<bytes>] [--checkpoint=<N>] [--resume] [--append=<btree file>]
      */
     public static void main(String[] args) {
         long startTime = System.nanoTime();
+        CommandLineOptions options = new CommandLineOptions(args);
+        args = options.getPositionalArgs();
         boolean useCache;
         int degree;
         String gbkFile;
@@ -57,7 +175,7 @@ public class GeneBankCreateBTree {
         int debugLevel = 0;
 
         // read in args
-        if (!verifyArgs(args)) {
+        if (!verifyArgs(args) || !verifyOptions(options, args)) {
             printUsageAndExit();
         }
         useCache = args[0].equals("1");
@@ -73,9 +191,11 @@ public class GeneBankCreateBTree {
             debugLevel = Integer.parseInt(args[5]);
         }
 
-        //sets optimal tree degree if degree is 0
+        //sets optimal tree degree if degree is 0, one node per page
+        int pageSize = options.getInt("page-size", 0);
         if (degree == 0) {
-            degree = (4096 - BTreeNode.METADATA_SIZE + TreeObject.DISK_SIZE) / (2 * (TreeObject.DISK_SIZE + Long.BYTES));
+            int keySize = sequenceLength > DNAConversion.MAX_NARROW_LENGTH ? TreeObject.WIDE_DISK_SIZE : TreeObject.DISK_SIZE;
+            degree = DiskReadWrite.getOptimalDegree(pageSize, keySize, options.has("compact"));
         }
 
         GeneBankCreateBTree treeCreator;
@@ -89,10 +209,27 @@ public class GeneBankCreateBTree {
             }
 
             // creates BTree and prepares to insert sequences
-            if (useCache) {
-                treeCreator = new GeneBankCreateBTree(sourceFile, sequenceLength, degree, cacheSize);
+            Cache<BTreeNode> cache = null;
+            if (useCache) cache = Cache.create(options.get("cache-policy", "lru"), cacheSize);
+            int mode = options.has("resume") ? BTree.MODE_RESUME : BTree.MODE_WRITE;
+            if (options.has("append") && !options.has("resume")) mode = BTree.MODE_UPDATE;
+            if (options.has("mmap")) mode |= BTree.MODE_MAPPED;
+            if (options.has("compact")) mode |= BTree.MODE_COMPACT;
+            if (options.has("bplus")) mode |= BTree.MODE_BPLUS;
+            if (options.has("append")) {
+                // the degree and layout are those of the existing file
+                File treeFile = new File(options.get("append", ""));
+                treeCreator = new GeneBankCreateBTree(sourceFile, sequenceLength, treeFile, cache, mode);
             } else {
-                treeCreator = new GeneBankCreateBTree(sourceFile, sequenceLength, degree);
+                treeCreator = new GeneBankCreateBTree(sourceFile, sequenceLength, degree, cache, mode, pageSize);
+            }
+            treeCreator.setBulkLoad(options.has("bulk"));
+            treeCreator.setCanonical(options.has("canonical"));
+            treeCreator.setSortThreads(options.getInt("sort-threads", 1));
+            treeCreator.setWriteBack(options.has("write-back"));
+            treeCreator.setCheckpointInterval(options.getInt("checkpoint", 0));
+            if (options.has("aggregate")) {
+                treeCreator.setAggregationBudget(options.getInt("aggregate", DEFAULT_AGGREGATION_BUDGET) * 1024L * 1024L);
             }
 
             // insert sequences into BTree
@@ -101,6 +238,14 @@ public class GeneBankCreateBTree {
             if (debugLevel == 1) {
                 treeCreator.createDumpFile();
             }
+            treeCreator.close();
+            if (useCache) {
+                System.out.println(treeCreator.getCacheStatistics());
+            }
+        } catch (IllegalArgumentException | IllegalStateException e) {
+            // the options do not match an existing BTree file
+            System.err.println(e.getMessage());
+            printUsageAndExit();
         } catch (IOException e) {
             e.printStackTrace();
         }
@@ -138,10 +283,10 @@ public class GeneBankCreateBTree {
                     throw new IllegalArgumentException("Error: Invalid input for tree degree");
                 }
 
-                // verify sequence length is between 1 and 31 (inclusive)
+                // verify sequence length is between 1 and 63 (inclusive)
                 try {
                     int sequenceLength = Integer.parseInt(args[3]);
-                    if (sequenceLength < 1 || sequenceLength > 31) {
+                    if (sequenceLength < 1 || sequenceLength > DNAConversion.MAX_SEQUENCE_LENGTH) {
                         throw new IllegalArgumentException("Error: Invalid input for sequence length");
                     }
                 } catch (NumberFormatException e) {
@@ -196,91 +341,513 @@ public class GeneBankCreateBTree {
         return true;
     }
 
+    /**
+     * Verifies that the user-given options are valid.
+     * Prints a message to the standard error stream if an invalid option is encountered
+     *
+     * @param options command line options
+     * @param args    positional command line arguments, already verified
+     * @return true if options are valid, false otherwise
+     */
+    private static boolean verifyOptions(CommandLineOptions options, String[] args) {
+        try {
+            options.verifyNames("bulk", "sort-threads", "aggregate", "write-back", "cache-policy", "mmap", "canonical",
+                    "compact", "bplus", "page-size", "checkpoint", "resume", "append");
+            if (options.has("page-size") && !DiskReadWrite.isValidPageSize(options.getInt("page-size", 0))) {
+                throw new IllegalArgumentException("Error: Invalid input for --page-size");
+            }
+            if (options.getInt("aggregate", DEFAULT_AGGREGATION_BUDGET) < 1) {
+                throw new IllegalArgumentException("Error: Invalid input for --aggregate");
+            }
+            if (options.getInt("sort-threads", 1) < 1) {
+                throw new IllegalArgumentException("Error: Invalid input for --sort-threads");
+            }
+            if (options.has("sort-threads") && !options.has("bulk")) {
+                throw new IllegalArgumentException("Error: --sort-threads requires --bulk");
+            }
+            if (options.getInt("checkpoint", 1) < 1) {
+                throw new IllegalArgumentException("Error: Invalid input for --checkpoint");
+            }
+            if ((options.has("checkpoint") || options.has("resume")) && options.has("bulk")) {
+                throw new IllegalArgumentException("Error: --checkpoint and --resume cannot be combined with --bulk");
+            }
+            if (options.has("append")) {
+                if (options.get("append", "").isEmpty()) {
+                    throw new IllegalArgumentException("Error: --append requires a BTree file");
+                }
+                for (String name : new String[]{"bulk", "compact", "page-size"}) {
+                    if (options.has(name)) {
+                        throw new IllegalArgumentException("Error: --append cannot be combined with --" + name);
+                    }
+                }
+                if (BTree.getSequenceLength(options.get("append", "")) != Integer.parseInt(args[3])) {
+                    throw new IllegalArgumentException("Error: The sequence length does not match the BTree file");
+                }
+            }
+            if (options.has("compact") && !options.has("bulk")) {
+                throw new IllegalArgumentException("Error: --compact requires --bulk");
+            }
+            if (options.has("bplus") && !options.has("bulk")) {
+                throw new IllegalArgumentException("Error: --bplus requires --bulk");
+            }
+            if (Integer.parseInt(args[3]) > DNAConversion.MAX_NARROW_LENGTH) {
+                for (String name : new String[]{"bulk", "aggregate", "canonical"}) {
+                    if (options.has(name)) {
+                        throw new IllegalArgumentException("Error: --" + name + " supports sequence lengths of up to "
+                                + DNAConversion.MAX_NARROW_LENGTH);
+                    }
+                }
+            }
+            if (options.has("write-back") && !args[0].equals("1")) {
+                throw new IllegalArgumentException("Error: --write-back requires a cache");
+            }
+            if (options.has("cache-policy")) {
+                if (!args[0].equals("1")) {
+                    throw new IllegalArgumentException("Error: --cache-policy requires a cache");
+                }
+                Cache.create(options.get("cache-policy", ""), 1);
+            }
+        } catch (IllegalArgumentException e) {
+            System.err.println(e.getMessage());
+            return false;
+        }
+        return true;
+    }
+
     /**
      * Prints a usage statement and exits with a code of 1
      */
     private static void printUsageAndExit() {
-        System.out.println("Usage: java GeneBankCreateBTree <0/1(no/with Cache)> <degree> <gbk file> <sequence length> [<cache size>] [<debug level>]");
+        System.out.println("Usage: java GeneBankCreateBTree <0/1(no/with Cache)> <degree> <gbk file> <sequence length> [<cache size>] [<debug level>] [--bulk] [--sort-threads=<N>] [--aggregate=<MB>] [--write-back] [--cache-policy=<policy>] [--mmap] [--canonical] [--compact] [--bplus] [--page-size=<bytes>] [--checkpoint=<N>] [--resume] [--append=<btree file>]");
         System.exit(1);
     }
 
+    /**
+     * Enables or disables bulk loading.
+     * When enabled, sequences are counted in a hash map; whenever the map fills, its counts are sorted and spilled
+     * to a run file. Once the whole file has been read the runs are merged and the BTree is written bottom-up in
+     * one pass, instead of inserting each sequence into the BTree as it is read.
+     *
+     * @param bulkLoad true to bulk load the BTree
+     */
+    public void setBulkLoad(boolean bulkLoad) {
+        this.bulkLoad = bulkLoad;
+    }
+
+    /**
+     * Enables or disables canonical mode.
+     * In canonical mode each sequence is stored as the smaller of itself and its reverse complement, so a
+     * sequence and its reverse complement (the same site on the other strand) are counted together.
+     * The mode is recorded in the BTree file so searches canonicalize their queries the same way.
+     *
+     * @param canonical true to store canonical sequences, requires a sequence length of at most 31
+     */
+    public void setCanonical(boolean canonical) throws IOException {
+        if (canonical && SEQUENCE_LENGTH > DNAConversion.MAX_NARROW_LENGTH) {
+            throw new IllegalArgumentException("Error: --canonical supports sequence lengths of up to "
+                    + DNAConversion.MAX_NARROW_LENGTH);
+        }
+        this.canonical = canonical;
+        int flags = bTree.getFlags();
+        // an existing BTree keeps its mode
+        if (resuming || updating) {
+            if (((flags & BTree.FLAG_CANONICAL) != 0) != canonical) {
+                throw new IllegalArgumentException("Error: --canonical must match the existing BTree file");
+            }
+            return;
+        }
+        bTree.setFlags(canonical ? flags | BTree.FLAG_CANONICAL : flags & ~BTree.FLAG_CANONICAL);
+    }
+
+    /**
+     * Enables periodic checkpoints.
+     * Every interval sequences, all changes are written to the BTree file and the position in the gbk file, the
+     * state of the encoding window, the root and the end of the BTree file are saved to a checkpoint file.
+     * From then on an undo journal holds the previous content of every node that is overwritten, so a run that
+     * dies can be continued from the checkpoint (BTree.MODE_RESUME) instead of starting over.
+     * Not available for bulk loading, which writes nothing before the whole file has been read.
+     *
+     * @param interval number of sequences between checkpoints, 0 for no checkpoints
+     */
+    public void setCheckpointInterval(long interval) {
+        if (interval > 0 && bulkLoad) throw new IllegalStateException("Checkpoints are not available for bulk loading");
+        this.checkpointInterval = interval;
+    }
+
+    /**
+     * Sets the number of threads used to sort the counted sequences when bulk loading.
+     * Only the sort runs in parallel, the BTree is written by one BTreeBuilder on the calling thread.
+     *
+     * @param threads number of threads, 1 sorts on the calling thread
+     */
+    public void setSortThreads(int threads) {
+        this.sortThreads = threads;
+    }
+
+    /**
+     * Enables or disables write-back caching of BTree nodes, requires a BTree with a cache
+     *
+     * @param writeBack true to delay node writes until the node leaves the cache or the BTree is closed
+     */
+    public void setWriteBack(boolean writeBack) throws IOException {
+        bTree.setWriteBack(writeBack);
+    }
+
+    /**
+     * @return hit and miss statistics of the BTree cache, requires a BTree with a cache
+     */
+    public String getCacheStatistics() {
+        return bTree.getCache().getStatistics();
+    }
+
+    /**
+     * Flushes any nodes that have not been written yet and closes the BTree file
+     */
+    public void close() throws IOException {
+        bTree.close();
+        // the BTree is complete, there is nothing to resume
+        if (checkpointInterval > 0 || resuming) {
+            Files.deleteIfExists(checkpointFile.toPath());
+            Files.deleteIfExists(journalFile.toPath());
+        }
+        deleteRuns();
+    }
+
+    /**
+     * Enables an in-memory aggregation stage in front of the BTree.
+     * Sequences are counted in a hash map, when the map fills its counts are inserted into the BTree
+     * in ascending key order, so a repeated sequence costs one BTree update per flush instead of one per occurrence.
+     * When bulk loading, the budget sets the size of the map that is spilled to run files.
+     *
+     * @param bytes memory budget of the hash map in bytes
+     */
+    public void setAggregationBudget(long bytes) {
+        aggregated = LongIntHashMap.withMemoryBudget(bytes);
+    }
+
     /**
      * Loads the gbk file.
      * Starting at ORIGIN and ending at //, DNA sequences(length set in constructor) are converted to long values and added to the BTree.
      * Any sequences containing 'n' are not added to the BTree.
+     * The file is streamed one base at a time, each sequence is encoded by shifting one base into the previous one.
+     * If bulk loading is enabled the BTree is written once the whole file has been read.
+     * Sequences longer than 31 bases are always inserted directly, as keys of two longs.
+     * A resumed run continues at the position saved in the checkpoint.
+     * When sequences are added to an existing BTree with checkpoints enabled, a checkpoint is saved before the first one.
      */
     public void readFile() throws IOException {
-        try (Scanner scanner = new Scanner(sourceFile)) {
-            while (scanner.hasNextLine()) {
-                String line = scanner.nextLine();
-
-                //find and parse the next DNA sequence in the file
-                if (line.trim().equals("ORIGIN")) {
-                    StringBuilder sb = new StringBuilder();
-                    line = scanner.nextLine().trim();
-                    while (!line.equals("//")) {
-                        String[] dnaLine = line.split(" ");
-                        for (int i = 1; i < dnaLine.length; i++) { //start at 1 because the first index always contains a number
-                            sb.append(dnaLine[i]);
-                        }
-                        line = scanner.nextLine().trim();
-                    }
-                    String dnaSequence = sb.toString();
-
-                    //insert the sequence into the BTree
-                    int index = 0; //ending index of the window
-                    int count = 0;
-                    while (count != SEQUENCE_LENGTH && index < dnaSequence.length()) {
-                        //find a window to start with that doesn't contain an 'n'
-                        if (dnaSequence.charAt(index) == 'n') {
-                            count = 0;
-                        } else {
-                            count++;
-                        }
-                        index++;
+        if (bulkLoad && aggregated == null) {
+            setAggregationBudget(DEFAULT_AGGREGATION_BUDGET * 1024L * 1024L);
+        }
+        try (GeneBankReader reader = new GeneBankReader(sourceFile)) {
+            DNAConversion.RollingEncoder window = new DNAConversion.RollingEncoder(SEQUENCE_LENGTH);
+            if (resuming) restoreCheckpoint(reader, window);
+            // lets an interrupted update return the BTree file to its state before the update
+            else if (updating && checkpointInterval > 0) checkpoint(reader, window);
+            long sinceCheckpoint = 0;
+            int base;
+            while ((base = reader.next()) != GeneBankReader.END_OF_FILE) {
+                if (base == GeneBankReader.END_OF_SEQUENCE) {
+                    window.reset();
+                } else if (window.add(base)) {
+                    if (SEQUENCE_LENGTH > DNAConversion.MAX_NARROW_LENGTH) {
+                        bTree.upsert(window.getHighSequence(), window.getSequence(), 1);
+                    } else {
+                        addSequence(canonical ? window.getCanonicalSequence() : window.getSequence());
                     }
-                    String substring = dnaSequence.substring(index - SEQUENCE_LENGTH, index);
-                    long binarySequence = DNAConversion.dnaToLong(substring);
-                    bTree.insert(new TreeObject(binarySequence)); //insert the starting window
-                    while (index < dnaSequence.length()) {
-                        if (dnaSequence.charAt(index) == 'n') { //an 'n' is found
-                            while (dnaSequence.charAt(index) == 'n') {
-                                //find next index that is not an 'n'
-                                index++;
-                            }
-                            count = 0;
-                            while (count != SEQUENCE_LENGTH && index < dnaSequence.length()) {
-                                //again find a valid window to continue with
-                                if (dnaSequence.charAt(index) == 'n') {
-                                    count = 0;
-                                } else {
-                                    count++;
-                                }
-                                index++;
-                            }
-                            if (index == dnaSequence.length()) { //no valid windows after the last 'n'
-                                break;
-                            }
-                        } else { //not an 'n'; continue as normal
-                            index++;
-                        }
-                        //index will always make a valid window at this point
-                        substring = dnaSequence.substring(index - SEQUENCE_LENGTH, index);
-                        binarySequence = DNAConversion.dnaToLong(substring);
-                        bTree.insert(new TreeObject(binarySequence));
+                    if (checkpointInterval > 0 && ++sinceCheckpoint == checkpointInterval) {
+                        checkpoint(reader, window);
+                        sinceCheckpoint = 0;
                     }
                 }
             }
         } catch (FileNotFoundException e) {
             e.printStackTrace();
         }
+        if (bulkLoad) {
+            writeBulk();
+        } else if (aggregated != null) {
+            flushAggregated();
+        }
+    }
+
+    /**
+     * Writes all changes to the BTree file and saves the state of the run to the checkpoint file.
+     * The checkpoint file is replaced atomically, then a new undo journal is started.
+     * Bytes|    8     |    8    |    8     |   ...  |   ...  |
+     *      |generation|root addr|end addr  |reader  |window  |
+     *
+     * @param reader reader of the gbk file, positioned after the last sequence added
+     * @param window encoding window holding the last bases read
+     */
+    private void checkpoint(GeneBankReader reader, DNAConversion.RollingEncoder window) throws IOException {
+        if (aggregated != null) flushAggregated();
+        bTree.sync();
+        generation++;
+        File temp = new File(checkpointFile.getPath() + ".tmp");
+        try (FileOutputStream file = new FileOutputStream(temp);
+             DataOutputStream out = new DataOutputStream(new BufferedOutputStream(file))) {
+            out.writeLong(generation);
+            out.writeLong(bTree.getRootAddress());
+            out.writeLong(bTree.getEndAddress());
+            reader.writeState(out);
+            window.writeState(out);
+            out.flush();
+            file.getFD().sync();
+        }
+        Files.move(temp.toPath(), checkpointFile.toPath(), StandardCopyOption.REPLACE_EXISTING,
+                StandardCopyOption.ATOMIC_MOVE);
+        bTree.startJournal(journalFile, generation);
+    }
+
+    /**
+     * Returns the BTree file to the last checkpoint and continues the reader and window from there
+     *
+     * @param reader reader of the gbk file
+     * @param window encoding window
+     */
+    private void restoreCheckpoint(GeneBankReader reader, DNAConversion.RollingEncoder window) throws IOException {
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(checkpointFile)))) {
+            generation = in.readLong();
+            long rootAddress = in.readLong();
+            long endAddress = in.readLong();
+            bTree.rollBack(journalFile, generation, rootAddress, endAddress);
+            reader.readState(in);
+            window.readState(in);
+        }
+        // the file now holds the checkpoint again, later changes are journaled against it
+        bTree.startJournal(journalFile, generation);
+    }
+
+    /**
+     * Inserts a sequence into the BTree, or counts it for aggregation or bulk loading
+     *
+     * @param sequence long representation of the DNA sequence
+     */
+    private void addSequence(long sequence) throws IOException {
+        if (aggregated != null) {
+            aggregated.add(sequence, 1);
+            if (aggregated.isFull()) {
+                if (bulkLoad) {
+                    spillRun();
+                } else {
+                    flushAggregated();
+                }
+            }
+        } else {
+            bTree.upsert(sequence, 1);
+        }
+    }
+
+    /**
+     * Inserts the aggregated counts into the BTree in ascending key order and empties the hash map
+     */
+    private void flushAggregated() throws IOException {
+        long[] keys = aggregated.sortedKeys();
+        int[] counts = new int[keys.length];
+        for (int i = 0; i < keys.length; i++) {
+            counts[i] = aggregated.get(keys[i]);
+        }
+        bTree.insertAll(keys, counts);
+        aggregated.clear();
+    }
+
+    /**
+     * Writes the counted sequences into the BTree bottom-up.
+     * If the hash map never filled its keys are sorted and written directly, otherwise the remaining counts are
+     * spilled as a last run and all runs are merged.
+     */
+    private void writeBulk() throws IOException {
+        BTreeBuilder builder = bTree.bulkLoader();
+        if (runFiles.isEmpty()) {
+            for (long key : sortAggregatedKeys()) {
+                builder.add(key, aggregated.get(key));
+            }
+        } else {
+            if (!aggregated.isEmpty()) spillRun();
+            mergeRuns(builder);
+        }
+        builder.finish();
+        aggregated = null;
+    }
+
+    /**
+     * Writes the aggregated counts to a new run file in ascending key order and empties the hash map
+     * Bytes|  4   |  8  |  4  |  8  |  4  | ...
+     *      |size  |key  |count|key  |count| ...
+     */
+    private void spillRun() throws IOException {
+        long[] keys = sortAggregatedKeys();
+        File runFile = new File(fileName + ".run" + runFiles.size());
+        runFiles.add(runFile);
+        try (DataOutputStream out = new DataOutputStream(
+                new BufferedOutputStream(new FileOutputStream(runFile), RUN_BUFFER_SIZE))) {
+            out.writeInt(keys.length);
+            for (long key : keys) {
+                out.writeLong(key);
+                out.writeInt(aggregated.get(key));
+            }
+        }
+        aggregated.clear();
+    }
+
+    /**
+     * Merges the run files into the BTree.
+     * Each step takes the smallest key of all runs and adds up its counts, a sum beyond the range of a
+     * frequency is stored as Integer.MAX_VALUE. The run files are deleted afterwards.
+     *
+     * @param builder builder of the BTree
+     */
+    private void mergeRuns(BTreeBuilder builder) throws IOException {
+        PriorityQueue<Run> queue = new PriorityQueue<>(Comparator.comparingLong(run -> run.key));
+        List<Run> runs = new ArrayList<>();
+        try {
+            for (File runFile : runFiles) {
+                Run run = new Run(runFile);
+                runs.add(run);
+                if (run.next()) queue.add(run);
+            }
+            while (!queue.isEmpty()) {
+                Run run = queue.poll();
+                long key = run.key;
+                long frequency = run.count;
+                // the other runs holding the same key are next in the queue
+                while (!queue.isEmpty() && queue.peek().key == key) {
+                    Run other = queue.poll();
+                    frequency += other.count;
+                    if (other.next()) queue.add(other);
+                }
+                if (run.next()) queue.add(run);
+                builder.add(key, (int) Math.min(frequency, Integer.MAX_VALUE));
+            }
+        } finally {
+            for (Run run : runs) {
+                run.close();
+            }
+            deleteRuns();
+        }
+    }
+
+    /**
+     * Deletes the run files of an unfinished bulk load
+     */
+    private void deleteRuns() throws IOException {
+        for (File runFile : runFiles) {
+            Files.deleteIfExists(runFile.toPath());
+        }
+        runFiles.clear();
+    }
+
+    /**
+     * @return the keys of the hash map in ascending order, sorted with the sort threads
+     */
+    private long[] sortAggregatedKeys() throws IOException {
+        long[] keys = aggregated.keys();
+        if (sortThreads > 1) return sortPartitioned(keys);
+        Arrays.sort(keys);
+        return keys;
+    }
+
+    /**
+     * Sorts keys with several threads.
+     * The keys are distributed into partitions by the high-order bits of their 2-bit encoding, so every
+     * key of a partition is less than every key of the next one. The partitions are then sorted in parallel
+     * and, placed one after another, form the sorted sequence without a merge step.
+     *
+     * @param keys keys to sort
+     * @return a new array holding the keys in ascending order
+     */
+    private long[] sortPartitioned(long[] keys) throws IOException {
+        // a few partitions per thread so threads that finish early can take another one
+        int bits = 0;
+        while ((1 << bits) < sortThreads * 4) bits++;
+        bits = Math.min(bits, 2 * SEQUENCE_LENGTH);
+        int shift = 2 * SEQUENCE_LENGTH - bits;
+        int partitions = 1 << bits;
+
+        // count the keys of each partition, then distribute them
+        int[] starts = new int[partitions + 1];
+        for (long key : keys) {
+            starts[(int) (key >>> shift) + 1]++;
+        }
+        for (int p = 0; p < partitions; p++) {
+            starts[p + 1] += starts[p];
+        }
+        int[] next = Arrays.copyOf(starts, partitions);
+        long[] partitioned = new long[keys.length];
+        for (long key : keys) {
+            partitioned[next[(int) (key >>> shift)]++] = key;
+        }
+
+        ExecutorService pool = Executors.newFixedThreadPool(sortThreads);
+        try {
+            List<Callable<Void>> sorts = new ArrayList<>();
+            for (int p = 0; p < partitions; p++) {
+                int from = starts[p];
+                int to = starts[p + 1];
+                sorts.add(() -> {
+                    Arrays.sort(partitioned, from, to);
+                    return null;
+                });
+            }
+            for (Future<Void> sort : pool.invokeAll(sorts)) {
+                sort.get();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Sorting was interrupted");
+        } catch (ExecutionException e) {
+            throw new IOException(e.getCause());
+        } finally {
+            pool.shutdown();
+        }
+        return partitioned;
     }
 
     /**
      * Creates a dump file of the contents of the BTree (in-order traversal)
      */
-    public void createDumpFile() {
+    public void createDumpFile() throws IOException {
         bTree.dump(sourceFile.getName() + ".btree.dump." + SEQUENCE_LENGTH, SEQUENCE_LENGTH);
     }
 
+    /**
+     * Reads the (key, count) pairs of a run file in ascending key order
+     */
+    private static class Run implements Closeable {
+
+        private final DataInputStream in;
+        private int remaining;
+        private long key;
+        private int count;
+
+        /**
+         * Opens a run file written by spillRun
+         *
+         * @param runFile run file
+         */
+        Run(File runFile) throws IOException {
+            in = new DataInputStream(new BufferedInputStream(new FileInputStream(runFile), RUN_BUFFER_SIZE));
+            remaining = in.readInt();
+        }
+
+        /**
+         * Moves to the next pair of the run
+         *
+         * @return true if the run is on a pair, false once all pairs have been read
+         */
+        boolean next() throws IOException {
+            if (remaining == 0) return false;
+            remaining--;
+            key = in.readLong();
+            count = in.readInt();
+            return true;
+        }
+
+        @Override
+        public void close() throws IOException {
+            in.close();
+        }
+    }
+
 }
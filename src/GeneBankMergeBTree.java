@@ -0,0 +1,260 @@
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.PriorityQueue;
+
+/**
+ * Driver class for merging several BTree files into one.
+ * Every input tree is walked in key order with a {@link BTreeCursor}; the cursors are merged through a priority
+ * queue and the frequencies of equal keys are added up. The merged keys arrive in ascending order and are written
+ * bottom-up with a {@link BTreeBuilder}, so the merge holds one path of nodes per input and a few nodes of the
+ * output, however many distinct sequences the trees contain.
+ */
+public class GeneBankMergeBTree {
+
+    private final int SEQUENCE_LENGTH;
+    private final List<BTree> sources;
+    private final BTree bTree;
+    private final String fileName;
+
+    /**
+     * Constructor, opens the input BTrees and creates the merged BTree
+     *
+     * @param sourceFiles    BTree files to merge, all of the same sequence length
+     * @param sequenceLength length of DNA sequences stored in the BTrees, at most 31
+     * @param outputName     name of the merged BTree, used like the name of a gbk file
+     * @param degree         degree of the merged BTree, i.e. minimum number of child nodes
+     * @param mode           BTree.MODE_WRITE, optionally combined with BTree.MODE_MAPPED, BTree.MODE_COMPACT or
+     *                       BTree.MODE_BPLUS
+     * @param pageSize       page size of the merged file, 0 for the unaligned layout
+     */
+    public GeneBankMergeBTree(List<File> sourceFiles, int sequenceLength, String outputName, int degree, int mode,
+                              int pageSize) throws IOException {
+        SEQUENCE_LENGTH = sequenceLength;
+        fileName = BTree.getFileName(outputName, SEQUENCE_LENGTH, degree);
+        sources = new ArrayList<>();
+        int canonical = -1;
+        for (File sourceFile : sourceFiles) {
+            if (sourceFile.getCanonicalFile().equals(new File(fileName).getCanonicalFile())) {
+                close();
+                throw new IllegalArgumentException("Error: The merged BTree cannot replace one of its inputs");
+            }
+            BTree source = new BTree(0, sourceFile.getPath(), BTree.MODE_READ);
+            sources.add(source);
+            if ((source.getFlags() & BTree.FLAG_WIDE_KEYS) != 0) {
+                close();
+                throw new IllegalArgumentException("Error: Merging supports sequence lengths of up to "
+                        + DNAConversion.MAX_NARROW_LENGTH);
+            }
+            // canonical and plain counts cannot be added up
+            int flag = source.getFlags() & BTree.FLAG_CANONICAL;
+            if (canonical != -1 && flag != canonical) {
+                close();
+                throw new IllegalArgumentException("Error: Canonical and non-canonical BTrees cannot be merged");
+            }
+            canonical = flag;
+        }
+        bTree = new BTree(degree, fileName, null, mode, pageSize);
+        bTree.setFlags(bTree.getFlags() | canonical);
+    }
+
+    /**
+     * main method
+     * loads command line args, merges the given BTree files into a new BTree file
+     *
+     * @param args <degree> <output name> <btree file> <btree file> [<btree file>...] [--compact] [--bplus] [--page-size=<bytes>] [--mmap] [--dump]
+     */
+    public static void main(String[] args) {
+        long startTime = System.nanoTime();
+        CommandLineOptions options = new CommandLineOptions(args);
+        args = options.getPositionalArgs();
+
+        // read in args
+        if (!verifyArgs(args) || !verifyOptions(options)) {
+            printUsageAndExit();
+        }
+        int degree = Integer.parseInt(args[0]);
+        String outputName = args[1];
+        List<File> sourceFiles = new ArrayList<>();
+        for (int i = 2; i < args.length; i++) {
+            sourceFiles.add(new File(args[i]));
+        }
+        int sequenceLength = BTree.getSequenceLength(args[2]);
+
+        //sets optimal tree degree if degree is 0, one node per page
+        int pageSize = options.getInt("page-size", 0);
+        if (degree == 0) {
+            degree = DiskReadWrite.getOptimalDegree(pageSize, TreeObject.DISK_SIZE, options.has("compact"));
+        }
+
+        GeneBankMergeBTree merger = null;
+        boolean merged = false;
+        try {
+            int mode = BTree.MODE_WRITE;
+            if (options.has("mmap")) mode |= BTree.MODE_MAPPED;
+            if (options.has("compact")) mode |= BTree.MODE_COMPACT;
+            if (options.has("bplus")) mode |= BTree.MODE_BPLUS;
+            merger = new GeneBankMergeBTree(sourceFiles, sequenceLength, outputName, degree, mode, pageSize);
+            merger.merge();
+            if (options.has("dump")) {
+                merger.createDumpFile(outputName);
+            }
+            merged = true;
+        } catch (IllegalArgumentException e) {
+            // the input files do not fit together
+            System.err.println(e.getMessage());
+            printUsageAndExit();
+        } catch (IOException e) {
+            e.printStackTrace();
+        } finally {
+            try {
+                if (merger != null) merger.close();
+            } catch (IOException e) {
+                e.printStackTrace();
+                merged = false;
+            }
+            // a partial file would look like a merged BTree
+            if (!merged && merger != null) new File(merger.fileName).delete();
+        }
+        if (!merged) {
+            System.err.println("Error: The BTree files could not be merged");
+            System.exit(1);
+        }
+
+        // calculate time
+        double timeSeconds = (System.nanoTime() - startTime) / Math.pow(10, 9);
+        int timeMinutes = (int) timeSeconds / 60;
+        timeSeconds %= 60;
+        System.out.printf("BTree merged\nSaved to %s\nTime elapsed(m:s) %d:%f\n",
+                new File(merger.fileName).getAbsolutePath(), timeMinutes, timeSeconds);
+    }
+
+    /**
+     * Verifies that the user-given arguments are valid.
+     * Prints a message to the standard error stream if an invalid argument is encountered
+     *
+     * @param args command line arguments
+     * @return true if arguments are valid, false otherwise
+     */
+    private static boolean verifyArgs(String[] args) {
+        if (args.length >= 4) {
+            try {
+                // verify degree is either 0 or is greater than 2
+                try {
+                    int treeDegree = Integer.parseInt(args[0]);
+                    if (treeDegree != 0 && treeDegree < 2) {
+                        throw new IllegalArgumentException("Error: Invalid input for tree degree");
+                    }
+                } catch (NumberFormatException e) {
+                    throw new IllegalArgumentException("Error: Invalid input for tree degree");
+                }
+
+                // verify the input files exist and hold sequences of one length
+                int sequenceLength = -1;
+                for (int i = 2; i < args.length; i++) {
+                    File sourceFile = new File(args[i]);
+                    if (!(sourceFile.exists() && sourceFile.isFile())) {
+                        throw new IllegalArgumentException("Error: Unable to locate file at: " + sourceFile.getAbsolutePath());
+                    }
+                    int length = BTree.getSequenceLength(args[i]);
+                    if (length < 1) {
+                        throw new IllegalArgumentException("Error: Invalid BTree file: " + args[i]);
+                    }
+                    if (sequenceLength != -1 && length != sequenceLength) {
+                        throw new IllegalArgumentException("Error: sequence length mismatch");
+                    }
+                    sequenceLength = length;
+                }
+                if (sequenceLength > DNAConversion.MAX_NARROW_LENGTH) {
+                    throw new IllegalArgumentException("Error: Merging supports sequence lengths of up to "
+                            + DNAConversion.MAX_NARROW_LENGTH);
+                }
+            } catch (IllegalArgumentException e) {
+                System.err.println(e.getMessage());
+                return false;
+            }
+        } else {
+            System.err.println("Error: Invalid number of arguments");
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * Verifies that the user-given options are valid.
+     * Prints a message to the standard error stream if an invalid option is encountered
+     *
+     * @param options command line options
+     * @return true if options are valid, false otherwise
+     */
+    private static boolean verifyOptions(CommandLineOptions options) {
+        try {
+            options.verifyNames("compact", "bplus", "page-size", "mmap", "dump");
+            if (options.has("page-size") && !DiskReadWrite.isValidPageSize(options.getInt("page-size", 0))) {
+                throw new IllegalArgumentException("Error: Invalid input for --page-size");
+            }
+        } catch (IllegalArgumentException e) {
+            System.err.println(e.getMessage());
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * Prints a usage statement and exits with a code of 1
+     */
+    private static void printUsageAndExit() {
+        System.out.println("Usage: java GeneBankMergeBTree <degree> <output name> <btree file> <btree file> [<btree file>...] [--compact] [--bplus] [--page-size=<bytes>] [--mmap] [--dump]");
+        System.exit(1);
+    }
+
+    /**
+     * Merges the input BTrees into the new BTree.
+     * Each step takes the smallest key of all cursors and adds the frequencies of the cursors positioned on it,
+     * a sum beyond the range of a frequency is stored as Integer.MAX_VALUE.
+     */
+    public void merge() throws IOException {
+        PriorityQueue<BTreeCursor> queue = new PriorityQueue<>(Comparator.comparingLong(BTreeCursor::getKey));
+        for (BTree source : sources) {
+            BTreeCursor cursor = source.cursor();
+            if (cursor.next()) queue.add(cursor);
+        }
+        BTreeBuilder builder = bTree.bulkLoader();
+        while (!queue.isEmpty()) {
+            BTreeCursor cursor = queue.poll();
+            long key = cursor.getKey();
+            long frequency = cursor.getFrequency();
+            // the other cursors on the same key are next in the queue
+            while (!queue.isEmpty() && queue.peek().getKey() == key) {
+                BTreeCursor other = queue.poll();
+                frequency += other.getFrequency();
+                if (other.next()) queue.add(other);
+            }
+            if (cursor.next()) queue.add(cursor);
+            builder.add(key, (int) Math.min(frequency, Integer.MAX_VALUE));
+        }
+        builder.finish();
+    }
+
+    /**
+     * Creates a dump file of the merged BTree
+     *
+     * @param outputName name of the merged BTree
+     */
+    public void createDumpFile(String outputName) throws IOException {
+        bTree.dump(outputName + ".btree.dump." + SEQUENCE_LENGTH, SEQUENCE_LENGTH);
+    }
+
+    /**
+     * Closes the input BTrees and the merged BTree
+     */
+    public void close() throws IOException {
+        for (BTree source : sources) {
+            source.close();
+        }
+        sources.clear();
+        if (bTree != null) bTree.close();
+    }
+}
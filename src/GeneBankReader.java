@@ -0,0 +1,216 @@
+import java.io.Closeable;
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * Streaming reader of the DNA sequences in a GeneBank file.
+ * The file is read through a FileChannel in fixed size blocks and parsed byte by byte: lines outside of the
+ * ORIGIN ... // sections are skipped, and within a section the line numbers and whitespace are skipped,
+ * so the bases are returned one at a time without ever building a String of a line or of the sequence.
+ */
+public class GeneBankReader implements Closeable {
+
+    /**
+     * returned by next when a sequence ends (a // line, or the end of the file within a sequence)
+     */
+    public static final int END_OF_SEQUENCE = -2;
+    /**
+     * returned by next when the whole file has been read
+     */
+    public static final int END_OF_FILE = -1;
+
+    private static final int BLOCK_SIZE = 64 * 1024;
+    private static final byte[] ORIGIN = {'O', 'R', 'I', 'G', 'I', 'N'};
+    private static final byte[] END = {'/', '/'};
+
+    private final FileChannel file;
+    private final ByteBuffer buffer;
+    private final byte[] bytes;
+    private long blockOffset; // offset of the first byte of the buffer in the file
+    private int position;
+    private int limit;
+    private boolean inSequence;
+    private boolean endOfFile;
+    // start of the current line with surrounding whitespace removed, used to find ORIGIN and // lines
+    private final byte[] line;
+    private int lineLength;
+    private boolean lineSpaced; // whitespace was seen after the first byte of the line
+    private boolean lineMatchable; // the trimmed line is short and has no inner whitespace
+
+    /**
+     * Opens a GeneBank file for reading
+     *
+     * @param file gbk file containing the DNA sequences
+     */
+    public GeneBankReader(File file) throws IOException {
+        this.file = new FileInputStream(file).getChannel();
+        buffer = ByteBuffer.allocate(BLOCK_SIZE);
+        bytes = buffer.array();
+        line = new byte[ORIGIN.length];
+        position = 0;
+        limit = 0;
+        resetLine();
+    }
+
+    /**
+     * Reads the next base of the current sequence, skipping everything that is not part of a sequence
+     *
+     * @return the base as a lower case letter (a, c, g, t, n, ...),
+     * END_OF_SEQUENCE at the end of each sequence, or END_OF_FILE
+     */
+    public int next() throws IOException {
+        while (true) {
+            if (position == limit && !fill()) {
+                // the last line may not end with a line break
+                if (endOfLine()) return END_OF_SEQUENCE;
+                if (inSequence) {
+                    inSequence = false;
+                    return END_OF_SEQUENCE;
+                }
+                return END_OF_FILE;
+            }
+            byte b = bytes[position++];
+            if (b == '\n') {
+                if (endOfLine()) return END_OF_SEQUENCE;
+            } else if (b == ' ' || b == '\t' || b == '\r') {
+                if (lineLength > 0) lineSpaced = true;
+            } else {
+                addToLine(b);
+                if (inSequence) {
+                    if (b >= 'a' && b <= 'z') return b;
+                    if (b >= 'A' && b <= 'Z') return b + ('a' - 'A');
+                    // line numbers and other characters are not bases
+                }
+            }
+        }
+    }
+
+    /**
+     * @return offset in the file of the next byte to be parsed
+     */
+    public long getOffset() {
+        return blockOffset + position;
+    }
+
+    /**
+     * Writes the position of the reader in the file and the state of the line being parsed,
+     * so reading can be continued later with {@link #readState(DataInput)}
+     *
+     * @param out output to write the state to
+     */
+    public void writeState(DataOutput out) throws IOException {
+        out.writeLong(getOffset());
+        out.writeBoolean(inSequence);
+        out.writeInt(lineLength);
+        out.writeBoolean(lineSpaced);
+        out.writeBoolean(lineMatchable);
+        out.write(line);
+    }
+
+    /**
+     * Continues reading at a state written by writeState
+     *
+     * @param in input to read the state from
+     */
+    public void readState(DataInput in) throws IOException {
+        long offset = in.readLong();
+        inSequence = in.readBoolean();
+        lineLength = in.readInt();
+        lineSpaced = in.readBoolean();
+        lineMatchable = in.readBoolean();
+        in.readFully(line);
+        file.position(offset);
+        blockOffset = offset;
+        position = 0;
+        limit = 0;
+        endOfFile = false;
+    }
+
+    /**
+     * Closes the file
+     */
+    @Override
+    public void close() throws IOException {
+        file.close();
+    }
+
+    /**
+     * Reads the next block of the file into the buffer
+     *
+     * @return true if bytes were read, false at the end of the file
+     */
+    private boolean fill() throws IOException {
+        if (endOfFile) return false;
+        buffer.clear();
+        int read = 0;
+        while (read == 0) {
+            read = file.read(buffer);
+        }
+        if (read < 0) {
+            endOfFile = true;
+            return false;
+        }
+        blockOffset += limit;
+        position = 0;
+        limit = read;
+        return true;
+    }
+
+    /**
+     * Adds a non-whitespace byte to the current line
+     *
+     * @param b byte of the line
+     */
+    private void addToLine(byte b) {
+        if (lineSpaced || lineLength >= line.length) {
+            lineMatchable = false;
+        } else {
+            line[lineLength] = b;
+        }
+        lineLength++;
+    }
+
+    /**
+     * Finishes the current line, starting or ending a sequence at ORIGIN and // lines
+     *
+     * @return true if the line ended a sequence
+     */
+    private boolean endOfLine() {
+        boolean origin = lineIs(ORIGIN);
+        boolean end = lineIs(END);
+        resetLine();
+        if (!inSequence && origin) {
+            inSequence = true;
+        } else if (inSequence && end) {
+            inSequence = false;
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * @param content expected content of the line
+     * @return true if the current line, without surrounding whitespace, equals content
+     */
+    private boolean lineIs(byte[] content) {
+        if (!lineMatchable || lineLength != content.length) return false;
+        for (int i = 0; i < content.length; i++) {
+            if (line[i] != content[i]) return false;
+        }
+        return true;
+    }
+
+    /**
+     * Prepares for the next line
+     */
+    private void resetLine() {
+        lineLength = 0;
+        lineSpaced = false;
+        lineMatchable = true;
+    }
+}
@@ -2,34 +2,56 @@ import java.io.BufferedWriter;
 import java.io.File;
 import java.io.FileWriter;
 import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.Scanner;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 /**
  * Driver class
  * Reads queries from a file and searches for each query in the BTree.
  * If debug level is 0 results are printed on the standard output stream.
  * If debug level is 1 results will also be stored to a result file.
+ * With --threads=N the queries are searched by N threads sharing the (read-only) BTree;
+ * with --batch blocks of queries are looked up in one sorted sweep over the tree (BTree.getAll).
+ * Results are always written in the order of the queries.
+ * If the BTree was built in canonical mode, each query matches itself and its reverse complement.
+ * A query shorter than the sequences of the BTree is a prefix: its result is the total frequency of all sequences
+ * that start with it, found with one range scan (BTree.scan).
  */
 @SuppressWarnings("ConstantConditions")
 public class GeneBankSearch {
 
+    // number of queries read and searched at a time in parallel and batch mode
+    private static final int QUERY_BLOCK = 1 << 16;
+
     /**
      * loads arguments and creates a BTree from the btree file.
      * loads query file and searches the BTree.
      *
      * @param args command line arguments <0/1(no/with Cache)> <btree file> <query file> [<cache size>] [<debug level>]
+     *             [--cache-policy=<policy>] [--mmap] [--threads=<N>] [--batch]
      */
     public static void main(String[] args) {
         long startTime = System.nanoTime();
+        CommandLineOptions options = new CommandLineOptions(args);
+        args = options.getPositionalArgs();
         boolean useCache = false;
         String bTreeFilename = null;
         String queryFilename = null;
         int cacheSize = 0;
         int debugLevel = 0;
-        if (verifyArgs(args)) {
+        int threads = 1;
+        if (verifyArgs(args) && verifyOptions(options, args)) {
             useCache = args[0].equals("1");
             bTreeFilename = args[1];
             queryFilename = args[2];
+            threads = options.getInt("threads", 1);
             if (args.length == 4) {
                 if (useCache) cacheSize = Integer.parseInt(args[3]);
                 else debugLevel = Integer.parseInt(args[3]);
@@ -56,15 +78,18 @@ public class GeneBankSearch {
             printUsageAndExit();
         }
         String outputFilename = null;
+        int sequenceLength = 0;
 
         Scanner scan = null;
         BufferedWriter bw = null;
         try {
             scan = new Scanner(queryFile);
             String line = scan.nextLine().trim().toLowerCase();
-            // verify that sequence lengths match
+            // verify that sequence lengths match, shorter queries are prefixes
             try {
-                if (line.length() != Integer.parseInt(bTreeFilenameArr[bTreeFilenameArr.length - 2])) {
+                sequenceLength = BTree.getSequenceLength(bTreeFilename);
+                if (sequenceLength < 1) throw new IllegalArgumentException();
+                if (line.length() > sequenceLength) {
                     System.err.println("Error: sequence length mismatch");
                     printUsageAndExit();
                 }
@@ -76,29 +101,30 @@ public class GeneBankSearch {
 
             //cache
             BTree bTree;
+            int mode = BTree.MODE_READ;
+            if (options.has("mmap")) mode |= BTree.MODE_MAPPED;
             if (useCache) {
-                bTree = new BTree(0, bTreeFilename, cacheSize, BTree.MODE_READ);
+                bTree = new BTree(0, bTreeFilename, Cache.create(options.get("cache-policy", "lru"), cacheSize), mode);
             } else {
-                bTree = new BTree(0, bTreeFilename, BTree.MODE_READ);
+                bTree = new BTree(0, bTreeFilename, mode);
+            }
+
+            if (options.has("batch") && (bTree.getFlags() & BTree.FLAG_WIDE_KEYS) != 0) {
+                System.err.println("Error: --batch supports sequence lengths of up to " + DNAConversion.MAX_NARROW_LENGTH);
+                printUsageAndExit();
             }
 
             // perform search on queries
             if (debugLevel == 1) bw = new BufferedWriter(new FileWriter(outputFilename));
-            int frequency = search(bTree, line);
-            if (frequency != 0) {
-                String output = String.format("%s: %d\n", line, frequency);
-                if (debugLevel == 1)bw.write(output);
-                System.out.println(output);
-            }
-            while (scan.hasNextLine()) {
-                line = scan.nextLine().trim().toLowerCase();
-                frequency = search(bTree, line);
-                if (frequency != 0) {
-                    String output = String.format("%s: %d\n", line, frequency);
-                    if (debugLevel == 1) bw.write(output);
-                    System.out.println(output);
+            if (threads > 1 || options.has("batch")) {
+                searchBlocks(bTree, sequenceLength, line, scan, threads, options.has("batch"), bw);
+            } else {
+                searchLine(bTree, line, sequenceLength, bw);
+                while (scan.hasNextLine()) {
+                    searchLine(bTree, scan.nextLine().trim().toLowerCase(), sequenceLength, bw);
                 }
             }
+            if (useCache) System.out.println(bTree.getCache().getStatistics());
         } catch (IOException e) {
             e.printStackTrace();
         } finally {
@@ -174,14 +200,82 @@ public class GeneBankSearch {
         return true;
     }
 
+    /**
+     * Verify that all command line options are valid
+     *
+     * @param options command line options
+     * @param args    positional command line args, already verified
+     * @return true if all options are valid false otherwise
+     */
+    public static boolean verifyOptions(CommandLineOptions options, String[] args) {
+        try {
+            options.verifyNames("cache-policy", "mmap", "threads", "batch");
+            if (options.getInt("threads", 1) < 1) {
+                throw new IllegalArgumentException("Error: Invalid input for --threads");
+            }
+            if (options.has("cache-policy")) {
+                if (!args[0].equals("1")) {
+                    throw new IllegalArgumentException("Error: --cache-policy requires a cache");
+                }
+                Cache.create(options.get("cache-policy", ""), 1);
+            }
+        } catch (IllegalArgumentException e) {
+            System.err.println(e.getMessage());
+            return false;
+        }
+        return true;
+    }
+
     /**
      * Prints a usage statement and exits the program
      */
     public static void printUsageAndExit() {
-        System.out.println("java GeneBankSearch <0/1(no/with Cache)> <btree file> <query file> [<cache size>] [<debug level>]");
+        System.out.println("java GeneBankSearch <0/1(no/with Cache)> <btree file> <query file> [<cache size>] [<debug level>] [--cache-policy=<policy>] [--mmap] [--threads=<N>] [--batch]");
         System.exit(1);
     }
 
+    /**
+     * Searches the BTree for one query and prints its result, or an error if the BTree cannot answer the query
+     *
+     * @param bTree          BTree to search
+     * @param query          sequence or prefix to search for
+     * @param sequenceLength length of the sequences in the BTree
+     * @param bw             writer of the result file, null if no result file is written
+     */
+    private static void searchLine(BTree bTree, String query, int sequenceLength, BufferedWriter bw) throws IOException {
+        String error = checkQuery(bTree, query, sequenceLength);
+        if (error != null) {
+            System.err.println(error);
+            return;
+        }
+        long frequency = search(bTree, query, sequenceLength);
+        if (frequency != 0) {
+            String output = String.format("%s: %d\n", query, frequency);
+            if (bw != null) bw.write(output);
+            System.out.println(output);
+        }
+    }
+
+    /**
+     * Checks that the BTree can answer a query
+     *
+     * @param bTree          BTree to search
+     * @param query          sequence or prefix to search for
+     * @param sequenceLength length of the sequences in the BTree
+     * @return an error message for the query, null if it can be searched
+     */
+    public static String checkQuery(BTree bTree, String query, int sequenceLength) {
+        if (query.length() > sequenceLength) {
+            return "Error: sequence length mismatch: " + query;
+        }
+        // a canonical key may hold the sequence with the prefix, or its reverse complement
+        if (query.length() < sequenceLength && (bTree.getFlags() & (BTree.FLAG_WIDE_KEYS | BTree.FLAG_CANONICAL)) != 0) {
+            return "Error: prefix queries require a sequence length of at most " + DNAConversion.MAX_NARROW_LENGTH
+                    + " and a BTree that is not canonical: " + query;
+        }
+        return null;
+    }
+
     /**
      * searches the BTree for the DNA sequence and returns the frequency of the sequence
      *
@@ -189,8 +283,181 @@ public class GeneBankSearch {
      * @param query sequence to search for
      * @return the frequency of the sequence in the BTree
      */
-    public static int search(BTree bTree, String query) throws IOException {
-        TreeObject o = bTree.get(DNAConversion.dnaToLong(query));
+    public static long search(BTree bTree, String query) throws IOException {
+        return search(bTree, query, query.length());
+    }
+
+    /**
+     * searches the BTree for the DNA sequence, or for all sequences starting with a shorter query,
+     * and returns the (total) frequency
+     *
+     * @param bTree          BTree to search
+     * @param query          sequence or prefix to search for
+     * @param sequenceLength length of the sequences in the BTree
+     * @return the frequency of the sequence, or the sum of the frequencies of the sequences with the prefix
+     * @throws IllegalArgumentException if the BTree cannot answer the query, see {@link #checkQuery}
+     */
+    public static long search(BTree bTree, String query, int sequenceLength) throws IOException {
+        String error = checkQuery(bTree, query, sequenceLength);
+        if (error != null) throw new IllegalArgumentException(error);
+        if (query.length() < sequenceLength) return searchPrefix(bTree, query, sequenceLength);
+        TreeObject o;
+        if (query.length() > DNAConversion.MAX_NARROW_LENGTH) {
+            o = bTree.get(DNAConversion.dnaToHighLong(query), DNAConversion.dnaToLowLong(query));
+        } else {
+            o = bTree.get(encode(bTree, query));
+        }
         return (o == null ? 0 : o.frequency);
     }
+
+    /**
+     * Adds up the frequencies of all sequences that start with a prefix.
+     * The prefix forms the high bits of the keys of these sequences, so they are the keys from the prefix followed
+     * by all a's (00) to the prefix followed by all t's (11), which one scan visits.
+     * A short prefix covers most of the tree, so the sum is kept in a long.
+     *
+     * @param bTree          BTree with narrow keys that are not canonical
+     * @param prefix         DNA sequence shorter than the sequences of the BTree, not empty
+     * @param sequenceLength length of the sequences in the BTree
+     * @return the sum of the frequencies of the sequences that start with prefix
+     */
+    private static long searchPrefix(BTree bTree, String prefix, int sequenceLength) throws IOException {
+        if (prefix.isEmpty()) return 0;
+        int suffixBits = 2 * (sequenceLength - prefix.length());
+        long lo = DNAConversion.dnaToLong(prefix) << suffixBits;
+        long hi = lo | ((1L << suffixBits) - 1);
+        BTreeCursor cursor = bTree.scan(lo, hi);
+        long frequency = 0;
+        while (cursor.next()) {
+            frequency += cursor.getFrequency();
+        }
+        return frequency;
+    }
+
+    /**
+     * Converts a query to the key it is stored under in the BTree
+     *
+     * @param bTree BTree to search
+     * @param query DNA sequence
+     * @return long representation of the sequence, canonical if the BTree stores canonical sequences
+     */
+    public static long encode(BTree bTree, String query) {
+        long key = DNAConversion.dnaToLong(query);
+        if ((bTree.getFlags() & BTree.FLAG_CANONICAL) != 0) key = DNAConversion.canonical(key, query.length());
+        return key;
+    }
+
+    /**
+     * Searches the remaining queries in blocks.
+     * Queries are read in blocks; each block is split into parts which are searched in parallel
+     * if there is more than one thread, then the results of the block are written in the order of the queries.
+     * Queries the BTree cannot answer are skipped and reported in their place on the standard error stream.
+     *
+     * @param bTree          BTree to search, shared by all threads
+     * @param sequenceLength length of the sequences in the BTree, shorter queries are prefixes
+     * @param firstLine      first query, already read from the query file
+     * @param scan           scanner over the rest of the query file
+     * @param threads        number of threads to search with
+     * @param batch          true to look up each part with one sorted sweep over the tree instead of one search per query
+     * @param bw             writer of the result file, null if no result file is written
+     */
+    public static void searchBlocks(BTree bTree, int sequenceLength, String firstLine, Scanner scan, int threads,
+                                    boolean batch, BufferedWriter bw) throws IOException {
+        ExecutorService pool = threads > 1 ? Executors.newFixedThreadPool(threads) : null;
+        try {
+            List<String> queries = new ArrayList<>();
+            queries.add(firstLine);
+            while (!queries.isEmpty()) {
+                while (queries.size() < QUERY_BLOCK && scan.hasNextLine()) {
+                    queries.add(scan.nextLine().trim().toLowerCase());
+                }
+
+                String[] errors = new String[queries.size()];
+                for (int i = 0; i < queries.size(); i++) {
+                    errors[i] = checkQuery(bTree, queries.get(i), sequenceLength);
+                }
+                long[] frequencies = new long[queries.size()];
+                if (pool == null) {
+                    searchPart(bTree, sequenceLength, queries, errors, 0, queries.size(), batch, frequencies);
+                } else {
+                    // several parts per thread so threads that finish early can take another part
+                    int partSize = Math.max(1, queries.size() / (threads * 4));
+                    List<Callable<Void>> parts = new ArrayList<>();
+                    for (int start = 0; start < queries.size(); start += partSize) {
+                        int from = start;
+                        int to = Math.min(start + partSize, queries.size());
+                        parts.add(() -> {
+                            searchPart(bTree, sequenceLength, queries, errors, from, to, batch, frequencies);
+                            return null;
+                        });
+                    }
+                    for (Future<Void> part : pool.invokeAll(parts)) {
+                        part.get();
+                    }
+                }
+
+                // write the results of the block in query order
+                StringBuilder results = new StringBuilder();
+                for (int i = 0; i < queries.size(); i++) {
+                    if (errors[i] != null) {
+                        System.out.print(results);
+                        results.setLength(0);
+                        System.err.println(errors[i]);
+                    } else if (frequencies[i] != 0) {
+                        String output = String.format("%s: %d\n", queries.get(i), frequencies[i]);
+                        if (bw != null) bw.write(output);
+                        results.append(output).append(System.lineSeparator());
+                    }
+                }
+                System.out.print(results);
+                queries.clear();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Search was interrupted");
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof IOException) throw (IOException) e.getCause();
+            throw new IOException(e.getCause());
+        } finally {
+            if (pool != null) pool.shutdown();
+        }
+    }
+
+    /**
+     * Searches a part of a block of queries
+     *
+     * @param bTree          BTree to search
+     * @param sequenceLength length of the sequences in the BTree, shorter queries are prefixes
+     * @param queries        block of queries
+     * @param errors         error message of each query the BTree cannot answer, null for the other queries
+     * @param from           index of the first query of the part
+     * @param to             index after the last query of the part
+     * @param batch          true to look up the part with one sorted sweep over the tree
+     * @param frequencies    receives the frequency of each query, indexed like queries
+     */
+    private static void searchPart(BTree bTree, int sequenceLength, List<String> queries, String[] errors, int from,
+                                   int to, boolean batch, long[] frequencies) throws IOException {
+        if (batch) {
+            long[] keys = new long[to - from];
+            for (int i = from; i < to; i++) {
+                keys[i - from] = errors[i] == null ? encode(bTree, queries.get(i)) : 0;
+            }
+            int[] found = bTree.getAll(keys);
+            for (int i = from; i < to; i++) {
+                frequencies[i] = found[i - from];
+            }
+            // prefixes are not keys, each is answered by a scan
+            for (int i = from; i < to; i++) {
+                if (errors[i] != null) {
+                    frequencies[i] = 0;
+                } else if (queries.get(i).length() < sequenceLength) {
+                    frequencies[i] = searchPrefix(bTree, queries.get(i), sequenceLength);
+                }
+            }
+        } else {
+            for (int i = from; i < to; i++) {
+                if (errors[i] == null) frequencies[i] = search(bTree, queries.get(i), sequenceLength);
+            }
+        }
+    }
 }
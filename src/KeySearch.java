@@ -0,0 +1,101 @@
+/**
+ * Finds the position of a key among the sorted keys of a node.
+ * The default implementation is a branch-free binary search: every step halves the range with a
+ * conditional move instead of a jump, so the search takes log2(n) steps with no mispredicted branches.
+ * <p>
+ * If the optional simd/VectorKeySearch.java was compiled and the program runs with
+ * --add-modules jdk.incubator.vector, {@link #get()} returns that implementation instead, which narrows the
+ * range with the binary search and compares the last few keys several at a time using vector instructions.
+ */
+public class KeySearch {
+
+    private static final KeySearch INSTANCE = load();
+
+    /**
+     * Creates the scalar (binary search) implementation, use {@link #get()} to obtain the fastest available one
+     */
+    public KeySearch() {
+    }
+
+    /**
+     * @return the vector implementation if it is available, the scalar implementation otherwise
+     */
+    public static KeySearch get() {
+        return INSTANCE;
+    }
+
+    /**
+     * Finds the first key that is not less than the target key
+     *
+     * @param keys sorted keys
+     * @param n    number of keys in use
+     * @param key  key to search for
+     * @return index of the first key greater than or equal to key, n if there is none
+     */
+    public int lowerBound(long[] keys, int n, long key) {
+        if (n == 0) return 0;
+        int base = 0;
+        int len = n;
+        while (len > 1) {
+            int half = len >>> 1;
+            base = keys[base + half] < key ? base + half : base;
+            len -= half;
+        }
+        return base + (keys[base] < key ? 1 : 0);
+    }
+
+    /**
+     * Finds the first wide key that is not less than the target key.
+     * Wide keys are ordered by their high word, then by their low word compared as unsigned.
+     *
+     * @param highKeys high words of the sorted keys
+     * @param keys     low words of the sorted keys
+     * @param n        number of keys in use
+     * @param highKey  high word of the key to search for
+     * @param key      low word of the key to search for
+     * @return index of the first key greater than or equal to the target, n if there is none
+     */
+    public int lowerBound(long[] highKeys, long[] keys, int n, long highKey, long key) {
+        if (n == 0) return 0;
+        int base = 0;
+        int len = n;
+        while (len > 1) {
+            int half = len >>> 1;
+            base = less(highKeys, keys, base + half, highKey, key) ? base + half : base;
+            len -= half;
+        }
+        return base + (less(highKeys, keys, base, highKey, key) ? 1 : 0);
+    }
+
+    /**
+     * @return name of the implementation
+     */
+    public String getName() {
+        return "binary";
+    }
+
+    /**
+     * @param highKeys high words of the keys
+     * @param keys     low words of the keys
+     * @param i        index of a key
+     * @param highKey  high word of the target key
+     * @param key      low word of the target key
+     * @return true if the key at i is less than the target key
+     */
+    private static boolean less(long[] highKeys, long[] keys, int i, long highKey, long key) {
+        long high = highKeys[i];
+        return high < highKey || (high == highKey && Long.compareUnsigned(keys[i], key) < 0);
+    }
+
+    /**
+     * @return the vector implementation if it can be loaded, the scalar implementation otherwise
+     */
+    private static KeySearch load() {
+        try {
+            return (KeySearch) Class.forName("VectorKeySearch").getDeclaredConstructor().newInstance();
+        } catch (ReflectiveOperationException | LinkageError e) {
+            // not compiled, or the incubator module was not added
+            return new KeySearch();
+        }
+    }
+}
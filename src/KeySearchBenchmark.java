@@ -0,0 +1,122 @@
+import java.util.Arrays;
+import java.util.Random;
+
+/**
+ * Measures the time to find a key in one node (one level of the tree) with the linear scan the BTree used
+ * before, the branch-free binary search and, if it is available, the vector search.
+ * Each degree is measured on nodes holding the maximum of 2 * degree - 1 sorted keys.
+ */
+public class KeySearchBenchmark {
+
+    private static final int NODES = 1024;
+    private static final int QUERIES = 1 << 18;
+    private static final int ROUNDS = 20;
+
+    /**
+     * Main method, runs the benchmark
+     *
+     * @param args degrees to measure, defaults to 20, 64, 102 (the degree chosen for degree 0) and 128
+     */
+    public static void main(String[] args) {
+        int[] degrees = {20, 64, 102, 128};
+        if (args.length > 0) {
+            degrees = new int[args.length];
+            for (int i = 0; i < args.length; i++) {
+                try {
+                    degrees[i] = Integer.parseInt(args[i]);
+                } catch (NumberFormatException e) {
+                    throw new IllegalArgumentException("Error: Invalid input for degree");
+                }
+                if (degrees[i] < 2) throw new IllegalArgumentException("Error: Invalid input for degree");
+            }
+        }
+
+        KeySearch binary = new KeySearch();
+        KeySearch best = KeySearch.get();
+        boolean vector = best.getClass() != KeySearch.class;
+        if (!vector) {
+            System.out.println("Vector search not available, compile simd/VectorKeySearch.java and run with "
+                    + "--add-modules jdk.incubator.vector to include it");
+        }
+        // the checksum of the search results keeps the searches from being optimized away
+        System.out.printf("%8s %6s %12s %12s %12s %10s %14s%n", "degree", "keys", "linear ns", "binary ns",
+                vector ? best.getName() : "-", "speedup", "checksum");
+
+        for (int degree : degrees) {
+            int n = 2 * degree - 1;
+            Random random = new Random(degree);
+            long[][] nodes = new long[NODES][];
+            for (int i = 0; i < NODES; i++) {
+                long[] keys = new long[n];
+                for (int j = 0; j < n; j++) {
+                    keys[j] = random.nextLong() >>> 2;
+                }
+                Arrays.sort(keys);
+                nodes[i] = keys;
+            }
+            // half of the queries are keys of the node, half fall between keys
+            int[] queryNodes = new int[QUERIES];
+            long[] queries = new long[QUERIES];
+            for (int i = 0; i < QUERIES; i++) {
+                queryNodes[i] = random.nextInt(NODES);
+                long[] keys = nodes[queryNodes[i]];
+                long key = keys[random.nextInt(n)];
+                queries[i] = random.nextBoolean() ? key : key + 1;
+            }
+
+            double linearTime = Double.MAX_VALUE;
+            double binaryTime = Double.MAX_VALUE;
+            double vectorTime = Double.MAX_VALUE;
+            long check = 0;
+            // the first rounds warm up the JIT, the best round is reported
+            for (int round = 0; round < ROUNDS; round++) {
+                long start = System.nanoTime();
+                long linearSum = 0;
+                for (int i = 0; i < QUERIES; i++) {
+                    linearSum += linearSearch(nodes[queryNodes[i]], n, queries[i]);
+                }
+                linearTime = Math.min(linearTime, (double) (System.nanoTime() - start) / QUERIES);
+
+                start = System.nanoTime();
+                long binarySum = 0;
+                for (int i = 0; i < QUERIES; i++) {
+                    binarySum += binary.lowerBound(nodes[queryNodes[i]], n, queries[i]);
+                }
+                binaryTime = Math.min(binaryTime, (double) (System.nanoTime() - start) / QUERIES);
+
+                long vectorSum = binarySum;
+                if (vector) {
+                    start = System.nanoTime();
+                    vectorSum = 0;
+                    for (int i = 0; i < QUERIES; i++) {
+                        vectorSum += best.lowerBound(nodes[queryNodes[i]], n, queries[i]);
+                    }
+                    vectorTime = Math.min(vectorTime, (double) (System.nanoTime() - start) / QUERIES);
+                }
+
+                if (linearSum != binarySum || binarySum != vectorSum) {
+                    throw new IllegalStateException("Searches returned different results for degree " + degree);
+                }
+                check += linearSum;
+            }
+
+            double fastest = vector ? Math.min(binaryTime, vectorTime) : binaryTime;
+            System.out.printf("%8d %6d %12.1f %12.1f %12s %9.2fx %14d%n", degree, n, linearTime, binaryTime,
+                    vector ? String.format("%.1f", vectorTime) : "-", linearTime / fastest, check);
+        }
+    }
+
+    /**
+     * Linear scan of the keys, as done by the BTree before the binary search
+     *
+     * @param keys sorted keys
+     * @param n    number of keys
+     * @param key  key to search for
+     * @return index of the first key greater than or equal to key, n if there is none
+     */
+    private static int linearSearch(long[] keys, int n, long key) {
+        int i = 0;
+        while (i < n && keys[i] < key) i++;
+        return i;
+    }
+}
@@ -0,0 +1,78 @@
+import java.util.List;
+
+/**
+ * Least recently used replacement: every hit moves the object to the top of the cache
+ * and the object at the bottom is removed when the cache is full.
+ *
+ * @param <T> type of objects to be stored
+ */
+public class LRUCache<T> extends Cache<T> {
+
+    private static final int RESIDENT = 0;
+
+    private final CacheLists<T> lists;
+
+    /**
+     * @param capacity size of the Cache
+     */
+    public LRUCache(int capacity) {
+        super(capacity);
+        lists = new CacheLists<>(capacity, 1);
+    }
+
+    @Override
+    protected T lookup(long key) {
+        int slot = lists.find(key);
+        if (slot == CacheLists.NONE) return null;
+        lists.moveToTop(slot, RESIDENT);
+        return lists.element(slot);
+    }
+
+    @Override
+    public T add(long key, T data) {
+        int slot = lists.find(key);
+        if (slot != CacheLists.NONE) {
+            lists.setElement(slot, data);
+            lists.moveToTop(slot, RESIDENT);
+            return null;
+        }
+        T evicted = null;
+        // if cache is full remove the bottom object
+        if (lists.size(RESIDENT) == capacity) {
+            int bottom = lists.bottom(RESIDENT);
+            evicted = lists.element(bottom);
+            lists.delete(bottom);
+        }
+        lists.insert(key, data, RESIDENT);
+        return evicted;
+    }
+
+    @Override
+    public T remove(long key) {
+        int slot = lists.find(key);
+        if (slot == CacheLists.NONE) return null;
+        T element = lists.element(slot);
+        lists.delete(slot);
+        return element;
+    }
+
+    @Override
+    public List<T> getObjects() {
+        return collect(lists, RESIDENT);
+    }
+
+    @Override
+    public int size() {
+        return lists.size(RESIDENT);
+    }
+
+    @Override
+    public void clear() {
+        lists.clear();
+    }
+
+    @Override
+    public String getPolicy() {
+        return "lru";
+    }
+}
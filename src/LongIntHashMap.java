@@ -0,0 +1,139 @@
+import java.util.Arrays;
+
+/**
+ * Open-addressing hash map from long keys to positive int counts, a count stops growing at Integer.MAX_VALUE.
+ * Keys and counts are stored in primitive arrays (no boxing, no entry objects) and collisions are
+ * resolved with linear probing. A slot is free when its count is 0, so every key value can be stored.
+ * The table never grows; callers check {@link #isFull()} and drain the map when it fills.
+ */
+public class LongIntHashMap {
+
+    public static final int ENTRY_SIZE = Long.BYTES + Integer.BYTES;
+    private static final int MIN_CAPACITY = 16;
+
+    private final long[] keys;
+    private final int[] counts;
+    private final int mask;
+    private final int maxSize;
+    private int size;
+
+    /**
+     * Creates a map with a fixed number of slots
+     *
+     * @param capacity number of slots, rounded up to a power of two
+     */
+    public LongIntHashMap(int capacity) {
+        int slots = MIN_CAPACITY;
+        while (slots < capacity && slots < (1 << 30)) slots <<= 1;
+        keys = new long[slots];
+        counts = new int[slots];
+        mask = slots - 1;
+        maxSize = slots / 4 * 3;
+        size = 0;
+    }
+
+    /**
+     * Creates the largest map whose slot arrays fit within the given number of bytes
+     *
+     * @param bytes memory budget in bytes
+     * @return a new empty map
+     */
+    public static LongIntHashMap withMemoryBudget(long bytes) {
+        long slots = MIN_CAPACITY;
+        while (slots * 2 * ENTRY_SIZE <= bytes && slots < (1 << 30)) slots <<= 1;
+        return new LongIntHashMap((int) slots);
+    }
+
+    /**
+     * Adds to the count of a key, inserting the key if it is not in the map
+     *
+     * @param key   key to update
+     * @param delta amount to add, must be positive
+     */
+    public void add(long key, int delta) {
+        int i = slot(key);
+        while (counts[i] != 0) {
+            if (keys[i] == key) {
+                // saturate, a wrapped count could reach 0 and free the slot
+                counts[i] = counts[i] > Integer.MAX_VALUE - delta ? Integer.MAX_VALUE : counts[i] + delta;
+                return;
+            }
+            i = (i + 1) & mask;
+        }
+        keys[i] = key;
+        counts[i] = delta;
+        size++;
+    }
+
+    /**
+     * @param key key to search for
+     * @return the count of the key, 0 if it is not in the map
+     */
+    public int get(long key) {
+        int i = slot(key);
+        while (counts[i] != 0) {
+            if (keys[i] == key) return counts[i];
+            i = (i + 1) & mask;
+        }
+        return 0;
+    }
+
+    /**
+     * @return number of keys in the map
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * @return true if the map has reached its maximum load and should be drained
+     */
+    public boolean isFull() {
+        return size >= maxSize;
+    }
+
+    /**
+     * @return true if the map contains no keys
+     */
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    /**
+     * @return a new array holding every key in the map in ascending order
+     */
+    public long[] sortedKeys() {
+        long[] sorted = keys();
+        Arrays.sort(sorted);
+        return sorted;
+    }
+
+    /**
+     * @return a new array holding every key in the map, in no particular order
+     */
+    public long[] keys() {
+        long[] all = new long[size];
+        int j = 0;
+        for (int i = 0; i < counts.length; i++) {
+            if (counts[i] != 0) all[j++] = keys[i];
+        }
+        return all;
+    }
+
+    /**
+     * Removes every key from the map
+     */
+    public void clear() {
+        Arrays.fill(counts, 0);
+        size = 0;
+    }
+
+    /**
+     * @param key key to hash
+     * @return the home slot of the key
+     */
+    private int slot(long key) {
+        long h = key * 0x9E3779B97F4A7C15L;
+        return (int) (h ^ (h >>> 32)) & mask;
+    }
+}
@@ -0,0 +1,128 @@
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+
+/**
+ * DiskReadWrite backend which reads and writes nodes through memory mapped regions of the file
+ * instead of one read or write call per node. Once a region is mapped, node visits are served
+ * from the page cache without any system call.
+ * <p>
+ * The file is mapped in chunks of CHUNK_SIZE bytes. Each mapping extends NODE_SIZE bytes past the end of
+ * its chunk, so every node starting inside a chunk can be accessed through that chunk's mapping alone.
+ * While building, chunks are mapped (and the file grown) as the end of the file advances; the file is
+ * truncated to its real length when it is closed.
+ * <p>
+ * Mapped chunks are published through a copy-on-write array, so reading threads only take a lock
+ * the first time a chunk is mapped.
+ */
+public class MappedDiskReadWrite extends DiskReadWrite {
+
+    private static final long CHUNK_SIZE = 64L * 1024 * 1024;
+
+    private final boolean writable;
+    private volatile MappedByteBuffer[] chunks;
+
+    /**
+     * Initializes a new MappedDiskReadWrite object
+     * Creates a new file if necessary
+     *
+     * @param file         file to read from, or create if it doesn't exist
+     * @param metadataSize size of metadata, used when loading from a file
+     * @param writable     true if nodes will be written, false to map the existing file read-only
+     */
+    public MappedDiskReadWrite(File file, int metadataSize, boolean writable) throws IOException {
+        super(file, metadataSize);
+        this.writable = writable;
+        chunks = new MappedByteBuffer[0];
+    }
+
+    @Override
+    protected void writeNode(BTreeNode node, long address) throws IOException {
+        encodeNode(node, region(address));
+    }
+
+    @Override
+    public BTreeNode readNode(long address) throws IOException {
+        if (address == 0) return null;
+        return decodeNode(region(address), address);
+    }
+
+    @Override
+    public void readView(long address, BTreeNodeView view) throws IOException {
+        int index = (int) (address / CHUNK_SIZE);
+        view.wrap(chunk(index), (int) (address - index * CHUNK_SIZE), address);
+    }
+
+    /**
+     * @param address address of a node
+     * @return a buffer over the mapped chunk containing the node, positioned at the node
+     */
+    protected ByteBuffer region(long address) throws IOException {
+        int index = (int) (address / CHUNK_SIZE);
+        ByteBuffer region = chunk(index).duplicate();
+        region.position((int) (address - index * CHUNK_SIZE));
+        return region;
+    }
+
+    /**
+     * @param index index of a chunk
+     * @return the mapping of the chunk, mapped if necessary
+     */
+    private MappedByteBuffer chunk(int index) throws IOException {
+        MappedByteBuffer[] mapped = chunks;
+        if (index < mapped.length && mapped[index] != null) return mapped[index];
+        return map(index);
+    }
+
+    /**
+     * Maps a chunk unless another thread has mapped it already
+     *
+     * @param index index of a chunk
+     * @return the mapping of the chunk
+     */
+    private synchronized MappedByteBuffer map(int index) throws IOException {
+        MappedByteBuffer[] mapped = chunks;
+        if (index < mapped.length && mapped[index] != null) return mapped[index];
+        long start = index * CHUNK_SIZE;
+        MappedByteBuffer chunk;
+        if (writable) {
+            chunk = file.map(FileChannel.MapMode.READ_WRITE, start, CHUNK_SIZE + NODE_SIZE);
+        } else {
+            long size = Math.min(file.size() - start, CHUNK_SIZE + NODE_SIZE);
+            chunk = file.map(FileChannel.MapMode.READ_ONLY, start, size);
+        }
+        mapped = Arrays.copyOf(mapped, Math.max(mapped.length, index + 1));
+        mapped[index] = chunk;
+        chunks = mapped;
+        return chunk;
+    }
+
+    /**
+     * Writes the mapped chunks back to the file and forces all changes to the storage device
+     */
+    @Override
+    public void force() throws IOException {
+        for (MappedByteBuffer chunk : chunks) {
+            if (chunk != null) chunk.force();
+        }
+        super.force();
+    }
+
+    /**
+     * Writes the mapped chunks back to the file, cuts the file to its used length and closes it
+     */
+    @Override
+    public void close() throws IOException {
+        if (writable) {
+            for (MappedByteBuffer chunk : chunks) {
+                if (chunk != null) chunk.force();
+            }
+            file.truncate(Math.max(endAddress, getHeaderSize()));
+        }
+        chunks = new MappedByteBuffer[0];
+        super.close();
+    }
+}
@@ -0,0 +1,201 @@
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * W-TinyLFU replacement (Einziger, Friedman and Manes). New objects enter a small LRU window (1% of the cache).
+ * An object leaving the window is only admitted to the main cache if it has been requested more often than
+ * the object the main cache would remove for it, as estimated by a count-min sketch of recent requests.
+ * The main cache is a segmented LRU: objects hit while on probation are promoted to the protected segment.
+ * A scan over many leaves therefore cannot displace the frequently requested upper levels of the tree.
+ *
+ * @param <T> type of objects to be stored
+ */
+public class TinyLFUCache<T> extends Cache<T> {
+
+    private static final int WINDOW = 0;
+    private static final int PROBATION = 1;
+    private static final int PROTECTED = 2;
+
+    private final CacheLists<T> lists;
+    private final FrequencySketch sketch;
+    private final int windowCapacity;
+    private final int mainCapacity;
+    private final int protectedCapacity;
+
+    /**
+     * @param capacity size of the Cache
+     */
+    public TinyLFUCache(int capacity) {
+        super(capacity);
+        windowCapacity = Math.max(1, capacity / 100);
+        mainCapacity = capacity - windowCapacity;
+        protectedCapacity = mainCapacity * 4 / 5;
+        lists = new CacheLists<>(capacity + 1, 3);
+        sketch = new FrequencySketch(capacity);
+    }
+
+    @Override
+    protected T lookup(long key) {
+        sketch.increment(key);
+        int slot = lists.find(key);
+        if (slot == CacheLists.NONE) return null;
+        touch(slot);
+        return lists.element(slot);
+    }
+
+    /**
+     * Updates the position of an object after a reference to it
+     *
+     * @param slot slot of the object
+     */
+    private void touch(int slot) {
+        switch (lists.listOf(slot)) {
+            case WINDOW:
+                lists.moveToTop(slot, WINDOW);
+                break;
+            case PROBATION:
+                // promote, demoting the least recent protected object if necessary
+                lists.moveToTop(slot, PROTECTED);
+                if (lists.size(PROTECTED) > protectedCapacity) {
+                    lists.moveToTop(lists.bottom(PROTECTED), PROBATION);
+                }
+                break;
+            default:
+                lists.moveToTop(slot, PROTECTED);
+        }
+    }
+
+    @Override
+    public T add(long key, T data) {
+        int slot = lists.find(key);
+        if (slot != CacheLists.NONE) {
+            lists.setElement(slot, data);
+            touch(slot);
+            return null;
+        }
+        lists.insert(key, data, WINDOW);
+        if (lists.size(WINDOW) <= windowCapacity) return null;
+
+        int candidate = lists.bottom(WINDOW);
+        if (lists.size(PROBATION) + lists.size(PROTECTED) < mainCapacity) {
+            lists.moveToTop(candidate, PROBATION);
+            return null;
+        }
+        int victim = lists.size(PROBATION) > 0 ? lists.bottom(PROBATION) : lists.bottom(PROTECTED);
+        if (victim != CacheLists.NONE && sketch.frequency(lists.key(candidate)) > sketch.frequency(lists.key(victim))) {
+            lists.moveToTop(candidate, PROBATION);
+        } else {
+            victim = candidate;
+        }
+        T evicted = lists.element(victim);
+        lists.delete(victim);
+        return evicted;
+    }
+
+    @Override
+    public T remove(long key) {
+        int slot = lists.find(key);
+        if (slot == CacheLists.NONE) return null;
+        T element = lists.element(slot);
+        lists.delete(slot);
+        return element;
+    }
+
+    @Override
+    public List<T> getObjects() {
+        return collect(lists, WINDOW, PROBATION, PROTECTED);
+    }
+
+    @Override
+    public int size() {
+        return lists.size(WINDOW) + lists.size(PROBATION) + lists.size(PROTECTED);
+    }
+
+    @Override
+    public void clear() {
+        lists.clear();
+        sketch.clear();
+    }
+
+    @Override
+    public String getPolicy() {
+        return "tinylfu";
+    }
+
+    /**
+     * Count-min sketch of 4-bit counters estimating how often each key was requested recently.
+     * All counters are halved after a sample of requests, so old popularity fades out.
+     */
+    private static class FrequencySketch {
+        private static final int DEPTH = 4;
+        private static final int MAX_COUNT = 15;
+        private static final long[] SEEDS = {
+                0x9E3779B97F4A7C15L, 0xC2B2AE3D27D4EB4FL, 0x165667B19E3779F9L, 0xD6E8FEB86659FD93L};
+
+        private final byte[] counters;
+        private final int mask;
+        private final int sampleSize;
+        private int additions;
+
+        /**
+         * @param capacity size of the cache using the sketch
+         */
+        FrequencySketch(int capacity) {
+            int width = 16;
+            while (width < capacity && width < (1 << 28)) width <<= 1;
+            counters = new byte[width * DEPTH];
+            mask = width - 1;
+            sampleSize = Math.max(capacity, 1) * 10;
+            additions = 0;
+        }
+
+        /**
+         * Records a request for a key
+         *
+         * @param key requested key
+         */
+        void increment(long key) {
+            for (int row = 0; row < DEPTH; row++) {
+                int i = index(key, row);
+                if (counters[i] < MAX_COUNT) counters[i]++;
+            }
+            if (++additions == sampleSize) {
+                for (int i = 0; i < counters.length; i++) {
+                    counters[i] >>= 1;
+                }
+                additions /= 2;
+            }
+        }
+
+        /**
+         * @param key key to estimate
+         * @return estimated number of recent requests for the key
+         */
+        int frequency(long key) {
+            int min = MAX_COUNT;
+            for (int row = 0; row < DEPTH; row++) {
+                min = Math.min(min, counters[index(key, row)]);
+            }
+            return min;
+        }
+
+        /**
+         * Resets every counter
+         */
+        void clear() {
+            Arrays.fill(counters, (byte) 0);
+            additions = 0;
+        }
+
+        /**
+         * @param key key to hash
+         * @param row row of the sketch
+         * @return index of the counter of the key in the row
+         */
+        private int index(long key, int row) {
+            long h = (key + row) * SEEDS[row];
+            h ^= h >>> 29;
+            return row * (mask + 1) + ((int) h & mask);
+        }
+    }
+}
@@ -4,7 +4,9 @@
 public class TreeObject implements Comparable<TreeObject> {
 
     public static final int DISK_SIZE = Long.BYTES + Integer.BYTES;
+    public static final int WIDE_DISK_SIZE = 2 * Long.BYTES + Integer.BYTES; // key of two longs, see highSubstring
 
+    protected final long highSubstring; // bases before the last 32 of a sequence longer than 31, otherwise 0
     protected final long substring;
     protected int frequency;
 
@@ -15,6 +17,7 @@ public class TreeObject implements Comparable<TreeObject> {
      */
     public TreeObject(long substring) {//Passed in substring
         frequency = 1;
+        this.highSubstring = 0;
         this.substring = substring;
     }
 
@@ -25,20 +28,26 @@ public class TreeObject implements Comparable<TreeObject> {
      * @param frequency frequency of sequence
      */
     public TreeObject(long substring, int frequency) {
+        this(0, substring, frequency);
+    }
+
+    /**
+     * Creates a tree object for a sequence longer than 31 bases
+     *
+     * @param highSubstring bases of the DNA sequence before the last 32 (long)
+     * @param substring     last 32 bases of the DNA sequence (long)
+     * @param frequency     frequency of sequence
+     */
+    public TreeObject(long highSubstring, long substring, int frequency) {
+        this.highSubstring = highSubstring;
         this.substring = substring;
         this.frequency = frequency;
     }
 
     @Override
     public int compareTo(TreeObject o) {
-        long diff = substring - o.substring;
-        if (diff > 0) {
-            return 1;
-        }
-        if (diff < 0) {
-            return -1;
-        }
-        return 0;
+        if (highSubstring != o.highSubstring) return Long.compare(highSubstring, o.highSubstring);
+        return Long.compareUnsigned(substring, o.substring);
     }
 
     /**
@@ -47,4 +56,13 @@ public class TreeObject implements Comparable<TreeObject> {
     public void incrementFrequency() {
         frequency++;
     }
+
+    /**
+     * increments the frequency of this object by the given amount
+     *
+     * @param amount amount to add to the frequency
+     */
+    public void incrementFrequency(int amount) {
+        frequency += amount;
+    }
 }
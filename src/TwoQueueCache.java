@@ -0,0 +1,106 @@
+import java.util.List;
+
+/**
+ * 2Q replacement (Johnson and Shasha). New objects enter a small FIFO queue (A1in). Objects removed from
+ * A1in are remembered by key only in a ghost queue (A1out); an object that is requested again while its key is
+ * in A1out is considered hot and enters the main LRU queue (Am). A single scan over many nodes therefore only
+ * cycles through A1in and does not push the frequently used upper levels of the tree out of Am.
+ *
+ * @param <T> type of objects to be stored
+ */
+public class TwoQueueCache<T> extends Cache<T> {
+
+    private static final int IN = 0;  // A1in, FIFO of new objects
+    private static final int OUT = 1; // A1out, keys of objects removed from A1in
+    private static final int MAIN = 2; // Am, LRU of hot objects
+
+    private final CacheLists<T> lists;
+    private final int inCapacity;
+    private final int outCapacity;
+
+    /**
+     * @param capacity size of the Cache
+     */
+    public TwoQueueCache(int capacity) {
+        super(capacity);
+        inCapacity = Math.max(1, capacity / 4);
+        outCapacity = Math.max(1, capacity / 2);
+        lists = new CacheLists<>(capacity + outCapacity, 3);
+    }
+
+    @Override
+    protected T lookup(long key) {
+        int slot = lists.find(key);
+        if (slot == CacheLists.NONE || lists.listOf(slot) == OUT) return null;
+        if (lists.listOf(slot) == MAIN) lists.moveToTop(slot, MAIN);
+        return lists.element(slot);
+    }
+
+    @Override
+    public T add(long key, T data) {
+        int slot = lists.find(key);
+        if (slot != CacheLists.NONE && lists.listOf(slot) != OUT) {
+            lists.setElement(slot, data);
+            if (lists.listOf(slot) == MAIN) lists.moveToTop(slot, MAIN);
+            return null;
+        }
+        // a key that is still remembered in A1out was seen recently, the object is hot
+        boolean hot = slot != CacheLists.NONE;
+        if (hot) lists.delete(slot);
+        T evicted = null;
+        if (size() == capacity) evicted = reclaim();
+        lists.insert(key, data, hot ? MAIN : IN);
+        return evicted;
+    }
+
+    /**
+     * Removes one object to make room for a new one
+     *
+     * @return the removed object
+     */
+    private T reclaim() {
+        int victim;
+        if (lists.size(IN) > inCapacity || lists.size(MAIN) == 0) {
+            victim = lists.bottom(IN);
+            T element = lists.element(victim);
+            // remember the key of the object in A1out
+            if (lists.size(OUT) == outCapacity) lists.delete(lists.bottom(OUT));
+            lists.setElement(victim, null);
+            lists.moveToTop(victim, OUT);
+            return element;
+        }
+        victim = lists.bottom(MAIN);
+        T element = lists.element(victim);
+        lists.delete(victim);
+        return element;
+    }
+
+    @Override
+    public T remove(long key) {
+        int slot = lists.find(key);
+        if (slot == CacheLists.NONE || lists.listOf(slot) == OUT) return null;
+        T element = lists.element(slot);
+        lists.delete(slot);
+        return element;
+    }
+
+    @Override
+    public List<T> getObjects() {
+        return collect(lists, IN, MAIN);
+    }
+
+    @Override
+    public int size() {
+        return lists.size(IN) + lists.size(MAIN);
+    }
+
+    @Override
+    public void clear() {
+        lists.clear();
+    }
+
+    @Override
+    public String getPolicy() {
+        return "2q";
+    }
+}
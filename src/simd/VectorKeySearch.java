@@ -0,0 +1,53 @@
+import jdk.incubator.vector.LongVector;
+import jdk.incubator.vector.VectorOperators;
+import jdk.incubator.vector.VectorSpecies;
+
+/**
+ * KeySearch which uses the (incubating) Vector API to compare several keys per instruction.
+ * The binary search narrows the range down to a few vectors of keys; the keys less than the target in
+ * that block are then counted with vector compares, which gives the index of the first key not less than it.
+ * <p>
+ * simd/ is a second source directory of the default package, not a package: a class in a named package could
+ * not extend KeySearch. It is kept apart so that {@code javac *.java} builds the program without the incubator
+ * module. Compile it into the directory of the other classes only when wanted, e.g. from the source directory:
+ * <pre>
+ * javac *.java
+ * javac --add-modules jdk.incubator.vector -cp . -d . simd/VectorKeySearch.java
+ * java --add-modules jdk.incubator.vector GeneBankSearch ...
+ * </pre>
+ * If the class is missing, or the program runs without the module, KeySearch falls back to the binary search.
+ */
+public class VectorKeySearch extends KeySearch {
+
+    private static final VectorSpecies<Long> SPECIES = LongVector.SPECIES_PREFERRED;
+    private static final int LANES = SPECIES.length();
+    // the binary search stops once the range holds at most this many keys
+    private static final int BLOCK = LANES * 4;
+
+    @Override
+    public int lowerBound(long[] keys, int n, long key) {
+        int base = 0;
+        int len = n;
+        while (len > BLOCK) {
+            int half = len >>> 1;
+            base = keys[base + half] < key ? base + half : base;
+            len -= half;
+        }
+        // every key before base is less than key, count the ones in the block
+        int end = base + len;
+        int count = 0;
+        int i = base;
+        for (; i + LANES <= end; i += LANES) {
+            count += LongVector.fromArray(SPECIES, keys, i).compare(VectorOperators.LT, key).trueCount();
+        }
+        for (; i < end; i++) {
+            count += keys[i] < key ? 1 : 0;
+        }
+        return base + count;
+    }
+
+    @Override
+    public String getName() {
+        return "vector(" + LANES + " lanes)";
+    }
+}